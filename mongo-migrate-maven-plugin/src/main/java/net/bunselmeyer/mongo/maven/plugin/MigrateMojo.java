@@ -19,12 +19,13 @@ package net.bunselmeyer.mongo.maven.plugin;
 import com.google.common.base.Function;
 import com.google.common.collect.*;
 import com.mongodb.DB;
-import com.mongodb.DBCollection;
 import com.mongodb.Mongo;
 import com.mongodb.WriteConcern;
 import net.bunselmeyer.mongo.annotations.Connection;
 import net.bunselmeyer.mongo.migrate.Migration;
-import net.vz.mongodb.jackson.JacksonDBCollection;
+import net.bunselmeyer.mongo.migrate.MigrationCheck;
+import net.bunselmeyer.mongo.migrate.MigrationLog;
+import net.bunselmeyer.mongo.migrate.MigrationRunner;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.maven.artifact.Artifact;
@@ -35,10 +36,7 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
-import org.bson.types.ObjectId;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 import org.reflections.Reflections;
 import org.reflections.util.ConfigurationBuilder;
 import org.reflections.util.FilterBuilder;
@@ -72,8 +70,19 @@ public class MigrateMojo extends AbstractMojo {
     @Parameter(alias = "port", defaultValue = "27017")
     private String port;
 
+    /**
+     * Seconds between progress log lines and progress writes to the migration's version document. 0 disables both.
+     */
+    @Parameter(alias = "progressInterval", defaultValue = "30")
+    private int progressInterval;
+
+    /**
+     * Number of most recent version records to keep in MigrationVersionDetails after a successful run. Older records
+     * are moved to MigrationVersionDetailsArchive. 0 keeps the whole history.
+     */
+    @Parameter(alias = "historyRetention", defaultValue = "0")
+    private int historyRetention;
 
-    private final ObjectMapper _objectMapper = new ObjectMapper();
 
     protected enum MIGRATION_CHECK {
         ERROR, WARNING, GOOD
@@ -138,31 +147,14 @@ public class MigrateMojo extends AbstractMojo {
     protected ImmutableListMultimap<MIGRATION_CHECK, MigrationDetails> buildStatusIndex(Set<Class<? extends Migration>> allMigrations) {
         Iterable<MigrationDetails> migrationStatus = Iterables.transform(allMigrations, new Function<Class<? extends Migration>, MigrationDetails>() {
             public MigrationDetails apply(Class<? extends Migration> input) {
-                if (input == null) {
-                    return new MigrationDetails(MIGRATION_CHECK.ERROR, "Failed to load migration from classloader.", input);
-                }
-                Connection connection = input.getAnnotation(Connection.class);
-                if (connection == null) {
-                    return new MigrationDetails(MIGRATION_CHECK.WARNING, "Migration does not have @Connection", input);
+                MigrationCheck check = MigrationCheck.check(input);
+                if (check.getStatus() != MigrationCheck.Status.GOOD) {
+                    return new MigrationDetails(MIGRATION_CHECK.valueOf(check.getStatus().name()), check.getMessage(), input);
                 }
 
-                if (StringUtils.isBlank(connection.db())) {
-                    return new MigrationDetails(MIGRATION_CHECK.ERROR, "Empty db property in @Connection", input);
-                }
-
-                if (StringUtils.isBlank(connection.version())) {
-                    return new MigrationDetails(MIGRATION_CHECK.ERROR, "Empty version property in @Connection", input);
-                }
-
-                try {
-                    DateTime version = DateTime.parse(connection.version());
-                    String host = StringUtils.isNotBlank(connection.host()) ? connection.host() : MigrateMojo.this.host;
-                    return version != null ? //
-                            new MigrationDetails(input, version, host, connection.db()) : //
-                            new MigrationDetails(MIGRATION_CHECK.ERROR, "Failed to parse @version to timestamp in @Connection", input);
-                } catch (Exception e) {
-                    return new MigrationDetails(MIGRATION_CHECK.ERROR, "Failed to parse @version to timestamp in @Connection", input);
-                }
+                Connection connection = input.getAnnotation(Connection.class);
+                String host = StringUtils.isNotBlank(connection.host()) ? connection.host() : MigrateMojo.this.host;
+                return new MigrationDetails(input, MigrationRunner.version(input), host, connection.db());
             }
         });
 
@@ -203,45 +195,25 @@ public class MigrateMojo extends AbstractMojo {
 
         DB db = mongo.getDB(migrationDetails.db);
 
-        JacksonDBCollection<MigrationVersionDetails, ObjectId> migrationVersionCollection = createMigrationVersionCollection(db);
-
         getLog().info("Running migrations. Host: " + migrationDetails.host + ". DB: " + migrationDetails.db);
 
         sortMigrationDetails(migrations);
 
-        Class<? extends Migration> lastMigration = null;
+        List<Class<? extends Migration>> migrationClasses = new ArrayList<Class<? extends Migration>>();
+        for (MigrationDetails details : migrations) {
+            migrationClasses.add(details.migration);
+        }
+
         try {
-            for (MigrationDetails details : migrations) {
-                lastMigration = details.migration;
-                Migration m = details.migration.newInstance();
-
-                MigrationVersionDetails versionDetails = new MigrationVersionDetails();
-                versionDetails.setMigrationName(details.migration.getName());
-                versionDetails.setVersion(details.version);
-
-                if (migrationVersionCollection.getCount(versionDetails) == 0) {
-                    m.up(db);
-                    db.getLastError().throwOnError();
-                    getLog().info("    " + details.migration.getName() + ", v" + details.version + " migration complete");
-                    versionDetails.setRun(DateTime.now(DateTimeZone.UTC));
-                    migrationVersionCollection.insert(versionDetails);
-                } else {
-                    getLog().info("    " + details.migration.getName() + ", v" + details.version + " was already run");
-                }
+            MigrationRunner runner = new MigrationRunner(db, new MojoMigrationLog()).progressInterval(progressInterval);
+            if (runner.migrate(migrationClasses) && historyRetention > 0) {
+                runner.compactHistory(historyRetention);
             }
-        } catch (Exception e) {
-            String name = lastMigration != null ? lastMigration.getName() : "";
-            getLog().info("    FAIL! " + name + " migration error", e);
         } finally {
             mongo.close();
         }
     }
 
-    private JacksonDBCollection<MigrationVersionDetails, ObjectId> createMigrationVersionCollection(DB db) {
-        DBCollection dbCollection = db.getCollection(MigrationVersionDetails.class.getSimpleName());
-        return JacksonDBCollection.wrap(dbCollection, MigrationVersionDetails.class, ObjectId.class, _objectMapper);
-    }
-
     protected void sortMigrationDetails(List<MigrationDetails> migrations) {
         Collections.sort(migrations, new Comparator<MigrationDetails>() {
             public int compare(MigrationDetails o1, MigrationDetails o2) {
@@ -285,6 +257,20 @@ public class MigrateMojo extends AbstractMojo {
         return (MavenProject) getPluginContext().get("project");
     }
 
+    private class MojoMigrationLog implements MigrationLog {
+        public void info(String message) {
+            getLog().info(message);
+        }
+
+        public void warn(String message) {
+            getLog().warn(message);
+        }
+
+        public void error(String message, Throwable error) {
+            getLog().error(message, error);
+        }
+    }
+
     protected static class MigrationDetails {
         public MIGRATION_CHECK status;
         public String message;
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.runner;
+
+import com.google.common.base.Joiner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Standalone migration runner.
+ * Usage:
+ * <pre>
+ * java -jar mongo-migrate-runner.jar run --package com.foo.migrations --classpath target/classes
+ * java -jar mongo-migrate-runner.jar daemon --listen 27999
+ * java -jar mongo-migrate-runner.jar --daemon 27999 plan --package com.foo.migrations --classpath target/classes
+ * </pre>
+ */
+public class MigrateCli {
+
+    public static final int DEFAULT_DAEMON_PORT = 27999;
+
+    public static void main(String[] args) throws IOException {
+        System.exit(run(new ArrayList<String>(Arrays.asList(args))));
+    }
+
+    static int run(List<String> args) throws IOException {
+        if (!args.isEmpty() && "daemon".equals(args.get(0))) {
+            return serve(args.subList(1, args.size()));
+        }
+        if (args.size() >= 2 && "--daemon".equals(args.get(0))) {
+            int port = Integer.parseInt(args.get(1));
+            return send(port, args.subList(2, args.size()));
+        }
+
+        RunnerCommand command;
+        try {
+            command = RunnerCommand.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(RunnerCommand.USAGE);
+            System.err.println("       daemon [--listen <port>]");
+            System.err.println("       --daemon <port> (run|plan|rollback|compact|shutdown) ...");
+            return 2;
+        }
+
+        MigrationWorker worker = new MigrationWorker();
+        try {
+            return worker.execute(command, new PrintWriterMigrationLog(new PrintWriter(System.out)));
+        } finally {
+            worker.close();
+        }
+    }
+
+    private static int serve(List<String> args) throws IOException {
+        int port = DEFAULT_DAEMON_PORT;
+        if (args.size() == 2 && "--listen".equals(args.get(0))) {
+            port = Integer.parseInt(args.get(1));
+        } else if (!args.isEmpty()) {
+            System.err.println("Usage: daemon [--listen <port>]");
+            return 2;
+        }
+
+        MigrationWorker worker = new MigrationWorker();
+        MigrationDaemon daemon = new MigrationDaemon(port, worker);
+        System.out.println("[INFO] Listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port);
+        try {
+            daemon.serve();
+        } finally {
+            daemon.close();
+            worker.close();
+        }
+        return 0;
+    }
+
+    private static int send(int port, List<String> args) throws IOException {
+        File tokenFile = MigrationDaemon.tokenFile(port);
+        if (!tokenFile.isFile()) {
+            System.err.println("[ERROR] No daemon token at " + tokenFile + ", start the daemon as this user first");
+            return 1;
+        }
+        String token = MigrationDaemon.readToken(tokenFile);
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), MigrationDaemon.CHARSET));
+            writer.println(token);
+            writer.println(Joiner.on(MigrationDaemon.ARGUMENT_SEPARATOR).join(args));
+            writer.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), MigrationDaemon.CHARSET));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(MigrationDaemon.EXIT)) {
+                    return Integer.parseInt(line.substring(MigrationDaemon.EXIT.length()));
+                }
+                System.out.println(line);
+            }
+            System.err.println("[ERROR] Daemon closed the connection");
+            return 1;
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.runner;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Long-lived worker process that accepts commands on a loopback socket so repeated runs skip JVM startup,
+ * migration discovery and connection setup.
+ * <p/>
+ * Protocol: the client sends the daemon token on the first line, then one line holding the command arguments
+ * separated by tabs. The daemon streams the log back line by line and finishes with {@code EXIT <code>}. Commands
+ * are handled one at a time.
+ * <p/>
+ * The token is generated at startup and written to a file only the daemon's user can read, see {@link #tokenFile},
+ * so other local users cannot make the daemon load and run their classes.
+ */
+public class MigrationDaemon implements Closeable {
+
+    public static final String EXIT = "EXIT ";
+    public static final char ARGUMENT_SEPARATOR = '\t';
+    public static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final int TOKEN_BYTES = 32;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+
+    private final ServerSocket _serverSocket;
+    private final MigrationWorker _worker;
+    private final File _tokenFile;
+    private final String _token;
+
+    public MigrationDaemon(int port, MigrationWorker worker) throws IOException {
+        this(port, worker, tokenFile(port));
+    }
+
+    public MigrationDaemon(int port, MigrationWorker worker, File tokenFile) throws IOException {
+        _serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        _worker = worker;
+        _tokenFile = tokenFile;
+        try {
+            _token = writeToken(tokenFile);
+        } catch (IOException e) {
+            _serverSocket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the default token file for a daemon listening on {@code port}
+     */
+    public static File tokenFile(int port) {
+        return new File(System.getProperty("user.home"), ".mongo-migrate" + File.separator + "daemon-" + port + ".token");
+    }
+
+    public static String readToken(File tokenFile) throws IOException {
+        return new String(Files.readAllBytes(tokenFile.toPath()), CHARSET).trim();
+    }
+
+    private static String writeToken(File tokenFile) throws IOException {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        String token = String.format("%0" + (TOKEN_BYTES * 2) + "x", new BigInteger(1, bytes));
+
+        File directory = tokenFile.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        Path path = tokenFile.toPath();
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+            Files.createFile(path);
+            tokenFile.setReadable(false, false);
+            tokenFile.setWritable(false, false);
+            tokenFile.setReadable(true, true);
+            tokenFile.setWritable(true, true);
+        }
+        Files.write(path, token.getBytes(CHARSET));
+        return token;
+    }
+
+    public int getPort() {
+        return _serverSocket.getLocalPort();
+    }
+
+    public void serve() throws IOException {
+        while (!_serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = _serverSocket.accept();
+            } catch (SocketException e) {
+                // closed by a shutdown command
+                break;
+            }
+            try {
+                handle(socket);
+            } catch (IOException e) {
+                // the client went away or never sent its command, keep serving the others
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), CHARSET));
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), CHARSET));
+        PrintWriterMigrationLog log = new PrintWriterMigrationLog(writer);
+
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        String token = reader.readLine();
+        String line = reader.readLine();
+        socket.setSoTimeout(0);
+
+        if (token == null || !MessageDigest.isEqual(token.getBytes(CHARSET), _token.getBytes(CHARSET))) {
+            log.error("Invalid daemon token, see " + _tokenFile, null);
+            writer.println(EXIT + 1);
+            writer.flush();
+            return;
+        }
+
+        int exitCode;
+        try {
+            RunnerCommand command = RunnerCommand.parse(Arrays.asList(line != null ? line.split(String.valueOf(ARGUMENT_SEPARATOR)) : new String[0]));
+            if (command.getAction() == RunnerCommand.Action.SHUTDOWN) {
+                log.info("Shutting down");
+                close();
+                exitCode = 0;
+            } else {
+                exitCode = _worker.execute(command, log);
+            }
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage() + "\n" + RunnerCommand.USAGE, null);
+            exitCode = 2;
+        } catch (Throwable e) {
+            // includes LinkageErrors from migration classes, which must not take the daemon down
+            log.error("Command failed", e);
+            exitCode = 1;
+        }
+        writer.println(EXIT + exitCode);
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        _serverSocket.close();
+        Files.deleteIfExists(_tokenFile.toPath());
+    }
+}
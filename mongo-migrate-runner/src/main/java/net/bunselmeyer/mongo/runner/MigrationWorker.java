@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.runner;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimaps;
+import com.mongodb.DB;
+import com.mongodb.Mongo;
+import com.mongodb.WriteConcern;
+import net.bunselmeyer.mongo.annotations.Connection;
+import net.bunselmeyer.mongo.migrate.Migration;
+import net.bunselmeyer.mongo.migrate.MigrationCheck;
+import net.bunselmeyer.mongo.migrate.MigrationLog;
+import net.bunselmeyer.mongo.migrate.MigrationRunner;
+import org.apache.commons.lang.StringUtils;
+import org.reflections.Reflections;
+import org.reflections.util.ConfigurationBuilder;
+import org.reflections.util.FilterBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes {@link RunnerCommand}s with {@link MigrationRunner}. Discovered migrations and mongo connections are kept
+ * between commands, so a long-lived worker only pays for class scanning and connection setup once per
+ * classpath and host.
+ */
+public class MigrationWorker implements Closeable {
+
+    private final Map<String, Discovery> _discoveries = new HashMap<String, Discovery>();
+    private final Map<String, Mongo> _connections = new HashMap<String, Mongo>();
+
+    /**
+     * Commands are executed one at a time.
+     *
+     * @return the process exit code, 0 on success
+     */
+    public synchronized int execute(final RunnerCommand command, MigrationLog log) {
+        Discovery discovery = discover(command, log);
+        if (discovery == null) {
+            return 1;
+        }
+
+        ImmutableListMultimap<String, Class<? extends Migration>> index = Multimaps.index(discovery.migrations,
+                new Function<Class<? extends Migration>, String>() {
+                    public String apply(Class<? extends Migration> input) {
+                        return host(input, command) + "," + input.getAnnotation(Connection.class).db();
+                    }
+                });
+
+        List<String> keys = Lists.newArrayList(index.keySet());
+        Collections.sort(keys);
+
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(discovery.classLoader);
+        try {
+            boolean success = true;
+            for (String key : keys) {
+                success &= execute(command, index.get(key), discovery.classLoader, log);
+            }
+            return success ? 0 : 1;
+        } finally {
+            Thread.currentThread().setContextClassLoader(contextClassLoader);
+        }
+    }
+
+    private boolean execute(RunnerCommand command, List<Class<? extends Migration>> migrations, ClassLoader classLoader, MigrationLog log) {
+        Connection connection = migrations.get(0).getAnnotation(Connection.class);
+        String host = host(migrations.get(0), command);
+
+        Mongo mongo;
+        try {
+            mongo = connect(host, command.getPort());
+        } catch (UnknownHostException e) {
+            log.error("Failed to connect to " + host + ":" + command.getPort(), null);
+            return false;
+        }
+
+        DB db = mongo.getDB(connection.db());
+        MigrationRunner runner = new MigrationRunner(db, log) //
+                .progressInterval(command.getProgressInterval()) //
+                .classLoader(classLoader);
+
+        switch (command.getAction()) {
+            case RUN:
+                log.info("Running migrations. Host: " + host + ". DB: " + connection.db());
+                return runner.migrate(migrations);
+            case PLAN:
+                List<Class<? extends Migration>> pending = runner.plan(migrations);
+                log.info(pending.size() + " pending migrations. Host: " + host + ". DB: " + connection.db());
+                for (Class<? extends Migration> migration : pending) {
+                    log.info("    " + migration.getName() + ", v" + MigrationRunner.version(migration));
+                }
+                return true;
+            case ROLLBACK:
+                log.info("Rolling back " + command.getSteps() + " migrations. Host: " + host + ". DB: " + connection.db());
+                return runner.rollback(command.getSteps());
+            case COMPACT:
+                log.info("Compacting migration history. Host: " + host + ". DB: " + connection.db());
+                runner.compactHistory(command.getKeep());
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private Discovery discover(RunnerCommand command, MigrationLog log) {
+        Discovery discovery = _discoveries.get(command.getDiscoveryKey());
+        if (discovery != null && !command.isRescan()) {
+            return discovery;
+        }
+
+        List<URL> urls = new ArrayList<URL>();
+        for (String path : command.getClasspath()) {
+            try {
+                urls.add(new File(path).toURI().toURL());
+            } catch (MalformedURLException e) {
+                log.error("Invalid classpath entry: " + path, e);
+                return null;
+            }
+        }
+        URLClassLoader classLoader = new URLClassLoader(urls.toArray(new URL[urls.size()]), getClass().getClassLoader());
+
+        FilterBuilder filterBuilder = new FilterBuilder();
+        filterBuilder.include(FilterBuilder.prefix(command.getMigrationPackage()));
+        ConfigurationBuilder configuration = new ConfigurationBuilder() //
+                .addUrls(urls) //
+                .addClassLoader(classLoader) //
+                .filterInputsBy(filterBuilder);
+
+        List<Class<? extends Migration>> migrations = new ArrayList<Class<? extends Migration>>();
+        boolean valid = true;
+        for (Class<? extends Migration> migration : new Reflections(configuration).getSubTypesOf(Migration.class)) {
+            if (Modifier.isAbstract(migration.getModifiers())) {
+                continue;
+            }
+            MigrationCheck check = MigrationCheck.check(migration);
+            if (check.getStatus() == MigrationCheck.Status.WARNING) {
+                log.warn("    " + migration.getName() + ": " + check.getMessage());
+                continue;
+            }
+            if (check.getStatus() == MigrationCheck.Status.ERROR) {
+                log.error("    " + migration.getName() + ": " + check.getMessage(), null);
+                valid = false;
+                continue;
+            }
+            migrations.add(migration);
+        }
+
+        if (!valid) {
+            log.error("Fail: Please correct the issues above.", null);
+            closeQuietly(classLoader, log);
+            return null;
+        }
+
+        MigrationRunner.sortByVersion(migrations);
+        log.info("Found " + migrations.size() + " migrations.");
+
+        Discovery replaced = _discoveries.put(command.getDiscoveryKey(), new Discovery(classLoader, migrations));
+        if (replaced != null) {
+            closeQuietly(replaced.classLoader, log);
+        }
+        return _discoveries.get(command.getDiscoveryKey());
+    }
+
+    private Mongo connect(String host, int port) throws UnknownHostException {
+        String key = host + ":" + port;
+        Mongo mongo = _connections.get(key);
+        if (mongo == null) {
+            mongo = new Mongo(host, port);
+            mongo.setWriteConcern(WriteConcern.SAFE);
+            _connections.put(key, mongo);
+        }
+        return mongo;
+    }
+
+    private static String host(Class<? extends Migration> migration, RunnerCommand command) {
+        String host = migration.getAnnotation(Connection.class).host();
+        return StringUtils.isNotBlank(host) ? host : command.getHost();
+    }
+
+    public synchronized void close() {
+        for (Mongo mongo : _connections.values()) {
+            mongo.close();
+        }
+        _connections.clear();
+        for (Discovery discovery : _discoveries.values()) {
+            closeQuietly(discovery.classLoader, null);
+        }
+        _discoveries.clear();
+    }
+
+    /**
+     * Release the jars held open by a loader that is no longer used.
+     */
+    private static void closeQuietly(URLClassLoader classLoader, MigrationLog log) {
+        try {
+            classLoader.close();
+        } catch (IOException e) {
+            if (log != null) {
+                log.warn("Failed to close migration class loader: " + e);
+            }
+        }
+    }
+
+    private static class Discovery {
+        private final URLClassLoader classLoader;
+        private final List<Class<? extends Migration>> migrations;
+
+        private Discovery(URLClassLoader classLoader, List<Class<? extends Migration>> migrations) {
+            this.classLoader = classLoader;
+            this.migrations = migrations;
+        }
+    }
+}
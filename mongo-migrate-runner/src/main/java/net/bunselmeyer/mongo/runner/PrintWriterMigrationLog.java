@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.runner;
+
+import net.bunselmeyer.mongo.migrate.MigrationLog;
+
+import java.io.PrintWriter;
+
+/**
+ * {@link MigrationLog} in the same format as the maven log, for the console and daemon clients.
+ */
+public class PrintWriterMigrationLog implements MigrationLog {
+
+    private final PrintWriter _writer;
+
+    public PrintWriterMigrationLog(PrintWriter writer) {
+        _writer = writer;
+    }
+
+    public void info(String message) {
+        print("[INFO] " + message);
+    }
+
+    public void warn(String message) {
+        print("[WARNING] " + message);
+    }
+
+    public void error(String message, Throwable error) {
+        synchronized (_writer) {
+            print("[ERROR] " + message);
+            if (error != null) {
+                error.printStackTrace(_writer);
+                _writer.flush();
+            }
+        }
+    }
+
+    private void print(String line) {
+        synchronized (_writer) {
+            _writer.println(line);
+            _writer.flush();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.runner;
+
+import com.google.common.base.Joiner;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A parsed run/plan/rollback command, either from the command line or from a daemon client.
+ */
+public class RunnerCommand {
+
+    public enum Action {
+        RUN, PLAN, ROLLBACK, COMPACT, SHUTDOWN
+    }
+
+    public static final String USAGE = "" //
+            + "Usage: (run|plan|rollback|compact|shutdown) --package <package> --classpath <path" + File.pathSeparator + "path...> [options]\n" //
+            + "    --host <host>              default mongo host for migrations without @Connection(host). Default: localhost\n" //
+            + "    --port <port>              mongo port. Default: 27017\n" //
+            + "    --steps <n>                number of migrations to roll back. Default: 1\n" //
+            + "    --keep <n>                 number of version records compact keeps, older ones are archived. Default: 100\n" //
+            + "    --progress-interval <s>    seconds between progress reports, 0 to disable. Default: 30\n" //
+            + "    --rescan                   rediscover migrations even if a daemon has them cached";
+
+    private Action _action;
+    private String _migrationPackage;
+    private List<String> _classpath = new ArrayList<String>();
+    private String _host = "localhost";
+    private int _port = 27017;
+    private int _steps = 1;
+    private int _keep = 100;
+    private int _progressInterval = 30;
+    private boolean _rescan;
+
+    /**
+     * @throws IllegalArgumentException on unknown actions or options, or missing values
+     */
+    public static RunnerCommand parse(List<String> args) {
+        if (args.isEmpty()) {
+            throw new IllegalArgumentException("Missing command");
+        }
+
+        RunnerCommand command = new RunnerCommand();
+        Iterator<String> iterator = args.iterator();
+        try {
+            command._action = Action.valueOf(iterator.next().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown command: " + args.get(0));
+        }
+
+        while (iterator.hasNext()) {
+            String option = iterator.next();
+            if ("--rescan".equals(option)) {
+                command._rescan = true;
+                continue;
+            }
+            if (!iterator.hasNext()) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = iterator.next();
+            if ("--package".equals(option)) {
+                command._migrationPackage = value;
+            } else if ("--classpath".equals(option)) {
+                command._classpath = Arrays.asList(StringUtils.split(value, File.pathSeparator));
+            } else if ("--host".equals(option)) {
+                command._host = value;
+            } else if ("--port".equals(option)) {
+                command._port = parseInt(option, value);
+            } else if ("--steps".equals(option)) {
+                command._steps = parseInt(option, value);
+            } else if ("--keep".equals(option)) {
+                command._keep = parseInt(option, value);
+            } else if ("--progress-interval".equals(option)) {
+                command._progressInterval = parseInt(option, value);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+
+        if (command._steps < 1) {
+            throw new IllegalArgumentException("Invalid --steps: " + command._steps);
+        }
+        if (command._keep < 0) {
+            throw new IllegalArgumentException("Invalid --keep: " + command._keep);
+        }
+        if (command._action != Action.SHUTDOWN && (StringUtils.isBlank(command._migrationPackage) || command._classpath.isEmpty())) {
+            throw new IllegalArgumentException("--package and --classpath are required");
+        }
+        return command;
+    }
+
+    private static int parseInt(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + option + ": " + value);
+        }
+    }
+
+    public Action getAction() {
+        return _action;
+    }
+
+    public String getMigrationPackage() {
+        return _migrationPackage;
+    }
+
+    public List<String> getClasspath() {
+        return _classpath;
+    }
+
+    public String getHost() {
+        return _host;
+    }
+
+    public int getPort() {
+        return _port;
+    }
+
+    public int getSteps() {
+        return _steps;
+    }
+
+    public int getKeep() {
+        return _keep;
+    }
+
+    public int getProgressInterval() {
+        return _progressInterval;
+    }
+
+    public boolean isRescan() {
+        return _rescan;
+    }
+
+    /**
+     * @return the key discovered migrations are cached under
+     */
+    public String getDiscoveryKey() {
+        return _migrationPackage + "|" + Joiner.on(File.pathSeparator).join(_classpath);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.runner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import net.bunselmeyer.mongo.migrate.MigrationLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MigrationDaemonTest {
+
+    private File _tokenFile;
+    private MigrationDaemon _daemon;
+    private Thread _thread;
+
+    @Before
+    public void setUp() throws Exception {
+        _tokenFile = new File(System.getProperty("java.io.tmpdir"), "mongo-migrate-test-" + System.nanoTime() + ".token");
+        _daemon = new MigrationDaemon(0, new FailingWorker(), _tokenFile);
+        _thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    _daemon.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        _thread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _daemon.close();
+        _thread.join(10000);
+    }
+
+    @Test
+    public void testTokenFile() throws Exception {
+        assertTrue(_tokenFile.isFile());
+        assertEquals(64, MigrationDaemon.readToken(_tokenFile).length());
+        assertEquals(new File(System.getProperty("user.home"), ".mongo-migrate" + File.separator + "daemon-27999.token"),
+                MigrationDaemon.tokenFile(27999));
+    }
+
+    @Test
+    public void testRejectsInvalidToken() throws Exception {
+        assertEquals(1, send("not the token", "plan\t--package\tcom.foo\t--classpath\ttarget/classes"));
+        assertEquals(2, send(MigrationDaemon.readToken(_tokenFile), "migrate"));
+    }
+
+    @Test
+    public void testSurvivesLinkageError() throws Exception {
+        String token = MigrationDaemon.readToken(_tokenFile);
+        assertEquals(1, send(token, "run\t--package\tcom.foo\t--classpath\ttarget/classes"));
+        assertEquals(1, send(token, "run\t--package\tcom.foo\t--classpath\ttarget/classes"));
+        assertEquals(0, send(token, "shutdown"));
+        _thread.join(10000);
+        assertFalse(_thread.isAlive());
+        assertFalse(_tokenFile.exists());
+    }
+
+    private int send(String token, String command) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), _daemon.getPort());
+        try {
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), MigrationDaemon.CHARSET));
+            writer.println(token);
+            writer.println(command);
+            writer.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), MigrationDaemon.CHARSET));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(MigrationDaemon.EXIT)) {
+                    return Integer.parseInt(line.substring(MigrationDaemon.EXIT.length()));
+                }
+            }
+            return -1;
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static class FailingWorker extends MigrationWorker {
+        @Override
+        public synchronized int execute(RunnerCommand command, MigrationLog log) {
+            throw new NoClassDefFoundError("com/foo/Missing");
+        }
+    }
+}
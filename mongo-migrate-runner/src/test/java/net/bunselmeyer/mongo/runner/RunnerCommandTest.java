@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.runner;
+
+import java.io.File;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RunnerCommandTest {
+
+    @Test
+    public void testParse() throws Exception {
+        RunnerCommand command = RunnerCommand.parse(Arrays.asList("rollback", "--package", "com.foo.migrations", //
+            "--classpath", "target/classes" + File.pathSeparator + "lib/foo.jar", "--host", "mongo1", "--port", "17017", "--steps", "3", "--rescan"));
+
+        assertEquals(RunnerCommand.Action.ROLLBACK, command.getAction());
+        assertEquals("com.foo.migrations", command.getMigrationPackage());
+        assertEquals(Arrays.asList("target/classes", "lib/foo.jar"), command.getClasspath());
+        assertEquals("mongo1", command.getHost());
+        assertEquals(17017, command.getPort());
+        assertEquals(3, command.getSteps());
+        assertEquals(30, command.getProgressInterval());
+        assertTrue(command.isRescan());
+    }
+
+    @Test
+    public void testParseDefaults() throws Exception {
+        RunnerCommand command = RunnerCommand.parse(Arrays.asList("plan", "--package", "com.foo.migrations", "--classpath", "target/classes"));
+
+        assertEquals(RunnerCommand.Action.PLAN, command.getAction());
+        assertEquals("localhost", command.getHost());
+        assertEquals(27017, command.getPort());
+        assertEquals(1, command.getSteps());
+        assertEquals(100, command.getKeep());
+        assertFalse(command.isRescan());
+        assertEquals("com.foo.migrations|target/classes", command.getDiscoveryKey());
+    }
+
+    @Test
+    public void testParseCompact() throws Exception {
+        RunnerCommand command = RunnerCommand.parse(Arrays.asList("compact", "--package", "com.foo.migrations", "--classpath", "target/classes", //
+            "--keep", "20"));
+
+        assertEquals(RunnerCommand.Action.COMPACT, command.getAction());
+        assertEquals(20, command.getKeep());
+    }
+
+    @Test
+    public void testParseShutdown() throws Exception {
+        assertEquals(RunnerCommand.Action.SHUTDOWN, RunnerCommand.parse(Arrays.asList("shutdown")).getAction());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnknownCommand() throws Exception {
+        RunnerCommand.parse(Arrays.asList("migrate", "--package", "com.foo.migrations", "--classpath", "target/classes"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseMissingPackage() throws Exception {
+        RunnerCommand.parse(Arrays.asList("run", "--classpath", "target/classes"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidPort() throws Exception {
+        RunnerCommand.parse(Arrays.asList("run", "--package", "com.foo.migrations", "--classpath", "target/classes", "--port", "mongo"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseNegativeKeep() throws Exception {
+        RunnerCommand.parse(Arrays.asList("compact", "--package", "com.foo.migrations", "--classpath", "target/classes", "--keep", "-1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseZeroSteps() throws Exception {
+        RunnerCommand.parse(Arrays.asList("rollback", "--package", "com.foo.migrations", "--classpath", "target/classes", "--steps", "0"));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A dotted field path such as "address.zip", split once and then applied to any number of documents without
+ * re-parsing. Array elements are addressed by index, e.g. "tags.0".
+ */
+public final class FieldPath {
+
+    private final String _path;
+    private final String[] _segments;
+
+    private FieldPath(String path, String[] segments) {
+        _path = path;
+        _segments = segments;
+    }
+
+    public static FieldPath compile(String path) {
+        if (path == null || path.isEmpty() || path.startsWith(".") || path.endsWith(".") || path.contains("..")) {
+            throw new IllegalArgumentException("Invalid field path: " + path);
+        }
+        return new FieldPath(path, path.split("\\."));
+    }
+
+    public String getPath() {
+        return _path;
+    }
+
+    public String getLeaf() {
+        return _segments[_segments.length - 1];
+    }
+
+    /**
+     * @return the sibling path with the last segment replaced, e.g. "address.zip" to "address.postalCode"
+     */
+    public FieldPath withLeaf(String leaf) {
+        if (leaf.contains(".")) {
+            throw new IllegalArgumentException("Invalid field name: " + leaf);
+        }
+        String[] segments = _segments.clone();
+        segments[segments.length - 1] = leaf;
+        int parentLength = _path.length() - getLeaf().length();
+        return new FieldPath(_path.substring(0, parentLength) + leaf, segments);
+    }
+
+    public boolean exists(DBObject document) {
+        DBObject parent = parent(document, false);
+        return parent != null && parent.containsField(getLeaf());
+    }
+
+    public Object get(DBObject document) {
+        DBObject parent = parent(document, false);
+        return parent != null ? parent.get(getLeaf()) : null;
+    }
+
+    /**
+     * Set the value, creating missing intermediate documents.
+     *
+     * @throws IllegalArgumentException if an intermediate field holds a value that is not a document
+     */
+    public void set(DBObject document, Object value) {
+        parent(document, true).put(getLeaf(), value);
+    }
+
+    /**
+     * Array elements are set to null rather than removed, the same as $unset does on the server, so the other
+     * elements keep their indexes.
+     *
+     * @return the removed value, or null when the field was not there
+     */
+    public Object unset(DBObject document) {
+        DBObject parent = parent(document, false);
+        if (parent instanceof List) {
+            Object value = parent.containsField(getLeaf()) ? parent.get(getLeaf()) : null;
+            if (value != null) {
+                parent.put(getLeaf(), null);
+            }
+            return value;
+        }
+        return parent != null ? parent.removeField(getLeaf()) : null;
+    }
+
+    /**
+     * @return the parent paths that are addressed by name and so must hold documents rather than arrays, e.g.
+     * "addresses" and "addresses.0.geo" for "addresses.0.geo.lat"
+     */
+    public List<String> getNamedParents() {
+        List<String> parents = new ArrayList<String>();
+        int length = 0;
+        for (int i = 0; i < _segments.length - 1; i++) {
+            length += (i > 0 ? 1 : 0) + _segments[i].length();
+            if (!isIndex(_segments[i + 1])) {
+                parents.add(_path.substring(0, length));
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * @return true if any segment is a numeric array index, e.g. "tags.0.name"
+     */
+    public boolean hasArrayIndex() {
+        for (String segment : _segments) {
+            if (isIndex(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIndex(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if either path is the other or contains it, i.e. a single update cannot modify both
+     */
+    public boolean overlaps(FieldPath other) {
+        int length = Math.min(_segments.length, other._segments.length);
+        for (int i = 0; i < length; i++) {
+            if (!_segments[i].equals(other._segments[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private DBObject parent(DBObject document, boolean create) {
+        DBObject current = document;
+        for (int i = 0; i < _segments.length; i++) {
+            if (current instanceof List && !isIndex(_segments[i])) {
+                // arrays only have numbered elements, a named field inside one is missing
+                if (create) {
+                    throw new IllegalArgumentException("Cannot set " + _path + ", " + _segments[i] + " is not an array index");
+                }
+                return null;
+            }
+            if (i == _segments.length - 1) {
+                break;
+            }
+            Object child = current.get(_segments[i]);
+            if (child == null && create) {
+                child = new BasicDBObject();
+                current.put(_segments[i], child);
+            }
+            if (!(child instanceof DBObject)) {
+                if (create) {
+                    throw new IllegalArgumentException("Cannot set " + _path + ", " + _segments[i] + " is not a document");
+                }
+                return null;
+            }
+            current = (DBObject) child;
+        }
+        return current;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FieldPath && _path.equals(((FieldPath) o)._path);
+    }
+
+    @Override
+    public int hashCode() {
+        return _path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return _path;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ordered list of set/rename/move/unset operations on {@link FieldPath}s, built once per migration and then
+ * applied to each document in place. When no two operations touch overlapping paths the same transform can be sent
+ * to the server as a single update instead, see {@link #canPushDown()} and {@link #toUpdate()}.
+ * <p/>
+ * Usage:
+ * <pre>
+ * FieldTransform transform = new FieldTransform()
+ *         .rename("address.zip", "postalCode")
+ *         .move("emailAddress", "contact.email")
+ *         .unset("legacyId");
+ * </pre>
+ */
+public class FieldTransform {
+
+    private enum Op {
+        SET, MOVE, UNSET
+    }
+
+    private static class Operation {
+        private final Op op;
+        private final FieldPath path;
+        private final FieldPath target;
+        private final Object value;
+
+        private Operation(Op op, FieldPath path, FieldPath target, Object value) {
+            this.op = op;
+            this.path = path;
+            this.target = target;
+            this.value = value;
+        }
+    }
+
+    private final List<Operation> _operations = new ArrayList<Operation>();
+
+    /**
+     * Set {@code path} to {@code value} on every document. The same value instance is shared by all documents.
+     */
+    public FieldTransform set(String path, Object value) {
+        _operations.add(new Operation(Op.SET, FieldPath.compile(path), null, value));
+        return this;
+    }
+
+    /**
+     * Rename the last segment of {@code path} in place, e.g. rename("address.zip", "postalCode").
+     */
+    public FieldTransform rename(String path, String newName) {
+        FieldPath from = FieldPath.compile(path);
+        return add(new Operation(Op.MOVE, from, from.withLeaf(newName), null));
+    }
+
+    /**
+     * Move the value at {@code from} to the full path {@code to}, creating missing parents.
+     */
+    public FieldTransform move(String from, String to) {
+        return add(new Operation(Op.MOVE, FieldPath.compile(from), FieldPath.compile(to), null));
+    }
+
+    public FieldTransform unset(String path) {
+        _operations.add(new Operation(Op.UNSET, FieldPath.compile(path), null, null));
+        return this;
+    }
+
+    private FieldTransform add(Operation move) {
+        if (move.path.overlaps(move.target)) {
+            throw new IllegalArgumentException("Cannot move " + move.path + " into " + move.target);
+        }
+        _operations.add(move);
+        return this;
+    }
+
+    /**
+     * @return every path the operations read or write, in order
+     */
+    List<FieldPath> getPaths() {
+        List<FieldPath> paths = new ArrayList<FieldPath>();
+        for (Operation operation : _operations) {
+            paths.add(operation.path);
+            if (operation.target != null) {
+                paths.add(operation.target);
+            }
+        }
+        return paths;
+    }
+
+    public boolean isEmpty() {
+        return _operations.isEmpty();
+    }
+
+    /**
+     * Apply the operations to {@code document} in order. Moves and unsets of missing fields are skipped.
+     *
+     * @return true if the document was modified
+     */
+    public boolean apply(DBObject document) {
+        boolean changed = false;
+        for (Operation operation : _operations) {
+            switch (operation.op) {
+                case SET:
+                    operation.path.set(document, operation.value);
+                    changed = true;
+                    break;
+                case MOVE:
+                    if (operation.path.exists(document)) {
+                        operation.target.set(document, operation.path.unset(document));
+                        changed = true;
+                    }
+                    break;
+                case UNSET:
+                    if (operation.path.exists(document)) {
+                        operation.path.unset(document);
+                        changed = true;
+                    }
+                    break;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * A single update can only carry the transform when every path it reads or writes is independent of the others;
+     * otherwise the order of operations matters and the server rejects the conflicting update. Moves in or out of
+     * array elements are never pushed down, $rename does not accept them.
+     */
+    public boolean canPushDown() {
+        List<FieldPath> touched = new ArrayList<FieldPath>();
+        for (Operation operation : _operations) {
+            if (operation.op == Op.MOVE && (operation.path.hasArrayIndex() || operation.target.hasArrayIndex())) {
+                return false;
+            }
+            if (!touch(touched, operation.path) || (operation.target != null && !touch(touched, operation.target))) {
+                return false;
+            }
+        }
+        return !touched.isEmpty();
+    }
+
+    private boolean touch(List<FieldPath> touched, FieldPath path) {
+        for (FieldPath other : touched) {
+            if (path.overlaps(other)) {
+                return false;
+            }
+        }
+        return touched.add(path);
+    }
+
+    /**
+     * @return the equivalent {$set, $rename, $unset} update
+     * @throws IllegalStateException if {@link #canPushDown()} is false
+     */
+    public DBObject toUpdate() {
+        if (!canPushDown()) {
+            throw new IllegalStateException("Transform has overlapping paths and cannot be pushed down as a single update");
+        }
+        BasicDBObject set = new BasicDBObject();
+        BasicDBObject rename = new BasicDBObject();
+        BasicDBObject unset = new BasicDBObject();
+        for (Operation operation : _operations) {
+            switch (operation.op) {
+                case SET:
+                    set.put(operation.path.getPath(), operation.value);
+                    break;
+                case MOVE:
+                    rename.put(operation.path.getPath(), operation.target.getPath());
+                    break;
+                case UNSET:
+                    unset.put(operation.path.getPath(), "");
+                    break;
+            }
+        }
+
+        BasicDBObject update = new BasicDBObject();
+        if (!set.isEmpty()) {
+            update.put("$set", set);
+        }
+        if (!rename.isEmpty()) {
+            update.put("$rename", rename);
+        }
+        if (!unset.isEmpty()) {
+            update.put("$unset", unset);
+        }
+        return update;
+    }
+}
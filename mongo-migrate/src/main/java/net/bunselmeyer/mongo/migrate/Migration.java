@@ -21,21 +21,181 @@ import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteResult;
+
+import java.util.Collections;
+import java.util.List;
 
 public abstract class Migration {
 
+    private final MigrationProgress _progress = new MigrationProgress(getClass().getName());
+
     abstract public void up(DB db);
 
     abstract public void down(DB db);
 
+    /**
+     * Optional consistency checks run after {@link #up}, e.g. with {@link #verifyFieldAbsent} and
+     * {@link #verifyCountParity}. The results are recorded with the migration's version.
+     */
+    public List<VerificationResult> verify(DB db) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Progress of the running {@link #up} or {@link #down}. Migrations that move data on their own should report
+     * through it, the helpers below already do.
+     */
+    public MigrationProgress getProgress() {
+        return _progress;
+    }
+
     protected void renameField(DB db, String collectionName, String from, String to) {
+        renameField(db, collectionName, from, to, new ScanOptions().noCursorTimeout(true));
+    }
+
+    /**
+     * Rename {@code from} to {@code to} document by document. Only {@code from} is fetched unless {@code options}
+     * sets its own projection.
+     */
+    protected void renameField(DB db, String collectionName, String from, String to, ScanOptions options) {
         DBCollection collection = db.getCollection(collectionName);
+        FieldPath fromPath = FieldPath.compile(from);
+        rejectArrayParents(collection, fromPath, FieldPath.compile(to));
         DBObject query = new BasicDBObject(from, new BasicDBObject("$exists", true));
-        DBCursor dbObjects = collection.find(query);
-        for (DBObject dbObject : dbObjects) {
-            dbObject.put(to, dbObject.get(from));
-            dbObject.removeField(from);
-            collection.save(dbObject);
+        DBObject fields = options.getFields() != null ? options.getFields() : new BasicDBObject(from, 1);
+        _progress.addTotal(collection.count(query));
+        DBCursor dbObjects = options.find(collection, query, fields);
+        try {
+            for (DBObject dbObject : dbObjects) {
+                Object id = dbObject.get("_id");
+                Object value = fromPath.get(dbObject);
+                // the scan may read from a lagging secondary, only write the value if it is still current on the primary
+                while (!renameValue(collection, id, from, to, value)) {
+                    DBObject current = findOnPrimary(collection, new BasicDBObject("_id", id).append(from, new BasicDBObject("$exists", true)),
+                            new BasicDBObject(from, 1));
+                    if (current == null) {
+                        break;
+                    }
+                    value = fromPath.get(current);
+                }
+                _progress.increment();
+            }
+        } finally {
+            dbObjects.close();
+        }
+    }
+
+    private boolean renameValue(DBCollection collection, Object id, String from, String to, Object value) {
+        DBObject update = new BasicDBObject("$set", new BasicDBObject(to, value)) //
+                .append("$unset", new BasicDBObject(from, ""));
+        return collection.update(new BasicDBObject("_id", id).append(from, value), update).getN() > 0;
+    }
+
+    private DBObject findOnPrimary(DBCollection collection, DBObject query, DBObject fields) {
+        DBCursor cursor = collection.find(query, fields).limit(1);
+        cursor.setReadPreference(ReadPreference.primary());
+        try {
+            return cursor.hasNext() ? cursor.next() : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    protected void transform(DB db, String collectionName, DBObject query, FieldTransform transform) {
+        transform(db, collectionName, query, transform, new ScanOptions().noCursorTimeout(true));
+    }
+
+    /**
+     * Apply {@code transform} to every document matching {@code query}. Transforms that {@link FieldTransform#canPushDown()}
+     * run as a single multi update on the server; the rest are applied document by document and saved back, so
+     * {@code options} must not set a projection or read from secondaries.
+     */
+    protected void transform(DB db, String collectionName, DBObject query, FieldTransform transform, ScanOptions options) {
+        DBCollection collection = db.getCollection(collectionName);
+        if (transform.canPushDown()) {
+            WriteResult result = collection.updateMulti(query, transform.toUpdate());
+            _progress.addTotal(result.getN());
+            _progress.add(result.getN());
+            return;
+        }
+
+        if (options.getFields() != null) {
+            throw new IllegalArgumentException("Document by document transforms save whole documents and cannot use a projection");
+        }
+        if (options.getReadPreference() != null && options.getReadPreference().isSlaveOk()) {
+            // a stale copy from a secondary would be saved over newer data on the primary
+            throw new IllegalArgumentException("Document by document transforms save whole documents and must read from the primary");
+        }
+        List<FieldPath> paths = transform.getPaths();
+        rejectArrayParents(collection, paths.toArray(new FieldPath[paths.size()]));
+        _progress.addTotal(collection.count(query));
+        DBCursor dbObjects = options.find(collection, query);
+        try {
+            for (DBObject dbObject : dbObjects) {
+                if (transform.apply(dbObject)) {
+                    collection.save(dbObject);
+                }
+                _progress.increment();
+            }
+        } finally {
+            dbObjects.close();
+        }
+    }
+
+    /**
+     * The document by document helpers address array elements by index only. A named segment under an array, e.g.
+     * "addresses.zip" where addresses is a list, would match on the server but be missing locally, so fail before
+     * anything is written.
+     */
+    private void rejectArrayParents(DBCollection collection, FieldPath... paths) {
+        for (FieldPath path : paths) {
+            for (String parent : path.getNamedParents()) {
+                if (collection.findOne(new BasicDBObject(parent + ".0", new BasicDBObject("$exists", true))) != null) {
+                    throw new IllegalArgumentException("Cannot rewrite " + path + " in " + collection.getName() + ", " + parent
+                            + " is an array in some documents. Address its elements by index, e.g. " + parent + ".0");
+                }
+            }
         }
     }
+
+    protected void forEachDocumentByShard(DB db, String collectionName, DBObject query, int concurrencyPerShard, DocumentCallback callback) {
+        forEachDocumentByShard(db, collectionName, query, concurrencyPerShard, new ScanOptions(), callback);
+    }
+
+    /**
+     * Apply {@code callback} to every document matching {@code query}, partitioned by the collection's chunk ranges
+     * with at most {@code concurrencyPerShard} ranges in flight per shard. The balancer is paused while this runs.
+     * The hint and ordering in {@code options} are ignored, every range walks the shard key index.
+     */
+    protected void forEachDocumentByShard(DB db, String collectionName, DBObject query, int concurrencyPerShard, ScanOptions options,
+                                          final DocumentCallback callback) {
+        _progress.addTotal(db.getCollection(collectionName).count(query));
+        new ShardedExecutor(db) //
+                .concurrencyPerShard(concurrencyPerShard) //
+                .scanOptions(options) //
+                .execute(collectionName, query, new DocumentCallback() {
+                    public void apply(DBCollection collection, DBObject document) {
+                        callback.apply(collection, document);
+                        _progress.increment();
+                    }
+                });
+    }
+
+    /**
+     * Check that no document in {@code collectionName} still has {@code field}.
+     */
+    protected VerificationResult verifyFieldAbsent(DB db, String collectionName, String field, Verification verification) {
+        DBObject failureQuery = new BasicDBObject(field, new BasicDBObject("$exists", true));
+        return verification.countMatching(db.getCollection(collectionName), failureQuery, "fieldAbsent " + collectionName + "." + field);
+    }
+
+    /**
+     * Check that {@code sourceCollectionName} and {@code targetCollectionName} hold the same number of documents.
+     */
+    protected VerificationResult verifyCountParity(DB db, String sourceCollectionName, String targetCollectionName, Verification verification) {
+        return verification.countParity(db.getCollection(sourceCollectionName), new BasicDBObject(), //
+                db.getCollection(targetCollectionName), new BasicDBObject());
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import net.bunselmeyer.mongo.annotations.Connection;
+
+/**
+ * Validates a migration's {@link Connection} before it is scheduled. Shared by the maven plugin and the standalone
+ * runner so both reject the same migrations with the same messages.
+ */
+public class MigrationCheck {
+
+    public enum Status {
+        ERROR, WARNING, GOOD
+    }
+
+    private final Status _status;
+    private final String _message;
+
+    private MigrationCheck(Status status, String message) {
+        _status = status;
+        _message = message;
+    }
+
+    /**
+     * Migrations without @Connection are a warning and are skipped, an incomplete @Connection is an error.
+     */
+    public static MigrationCheck check(Class<? extends Migration> migration) {
+        if (migration == null) {
+            return new MigrationCheck(Status.ERROR, "Failed to load migration from classloader.");
+        }
+        Connection connection = migration.getAnnotation(Connection.class);
+        if (connection == null) {
+            return new MigrationCheck(Status.WARNING, "Migration does not have @Connection");
+        }
+
+        if (isBlank(connection.db())) {
+            return new MigrationCheck(Status.ERROR, "Empty db property in @Connection");
+        }
+
+        if (isBlank(connection.version())) {
+            return new MigrationCheck(Status.ERROR, "Empty version property in @Connection");
+        }
+
+        try {
+            MigrationRunner.version(migration);
+        } catch (Exception e) {
+            return new MigrationCheck(Status.ERROR, "Failed to parse @version to timestamp in @Connection");
+        }
+        return new MigrationCheck(Status.GOOD, null);
+    }
+
+    public Status getStatus() {
+        return _status;
+    }
+
+    /**
+     * @return why the migration cannot be run, null when it is good
+     */
+    public String getMessage() {
+        return _message;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe processed/total document counter for a single migration.
+ * Migrations and the built in helpers report through it, runners read it to log, persist and publish over JMX.
+ * <p/>
+ * The rate is an exponentially weighted moving average over the intervals between {@link #sample()} calls, so the
+ * ETA follows a migration that slows down or speeds up part way through.
+ */
+public class MigrationProgress implements MigrationProgressMXBean {
+
+    /**
+     * Weight of the latest interval in the moving average.
+     */
+    private static final double RATE_ALPHA = 0.3;
+
+    private final String _migrationName;
+    private final AtomicLong _processed = new AtomicLong();
+    private final AtomicLong _total = new AtomicLong(-1);
+    private volatile long _started = System.currentTimeMillis();
+    private volatile long _sampled;
+    private volatile long _sampledProcessed;
+    private volatile double _rate = -1;
+
+    public MigrationProgress(String migrationName) {
+        _migrationName = migrationName;
+    }
+
+    public synchronized void start() {
+        _processed.set(0);
+        _total.set(-1);
+        _started = now();
+        _sampled = _started;
+        _sampledProcessed = 0;
+        _rate = -1;
+    }
+
+    /**
+     * Fold the documents processed since the previous sample into the moving rate. Called on every report tick.
+     */
+    public synchronized void sample() {
+        long now = now();
+        long elapsed = now - _sampled;
+        if (elapsed <= 0) {
+            return;
+        }
+        long processed = _processed.get();
+        double rate = (processed - _sampledProcessed) * 1000d / elapsed;
+        _rate = _rate < 0 ? rate : RATE_ALPHA * rate + (1 - RATE_ALPHA) * _rate;
+        _sampled = now;
+        _sampledProcessed = processed;
+    }
+
+    public void setTotal(long total) {
+        _total.set(total);
+    }
+
+    /**
+     * Add to the expected total, e.g. once per collection a migration scans.
+     */
+    public void addTotal(long count) {
+        _total.compareAndSet(-1, 0);
+        _total.addAndGet(count);
+    }
+
+    public void increment() {
+        _processed.incrementAndGet();
+    }
+
+    public void add(long count) {
+        _processed.addAndGet(count);
+    }
+
+    public String getMigrationName() {
+        return _migrationName;
+    }
+
+    public long getProcessed() {
+        return _processed.get();
+    }
+
+    public long getTotal() {
+        return _total.get();
+    }
+
+    /**
+     * @return the moving documents per second rate, or the average since {@link #start()} before the first sample
+     */
+    public double getRate() {
+        if (_rate >= 0) {
+            return _rate;
+        }
+        long elapsed = now() - _started;
+        return elapsed > 0 ? _processed.get() * 1000d / elapsed : 0;
+    }
+
+    public long getEtaMillis() {
+        long total = _total.get();
+        double rate = getRate();
+        if (total < 0 || rate <= 0) {
+            return -1;
+        }
+        return (long) (Math.max(0, total - _processed.get()) * 1000 / rate);
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    public ObjectName registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("net.bunselmeyer.mongo.migrate:type=MigrationProgress,name=" + ObjectName.quote(_migrationName));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            return name;
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void unregisterMBean(ObjectName name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (name != null && server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        long processed = _processed.get();
+        long total = _total.get();
+        StringBuilder builder = new StringBuilder().append(processed);
+        if (total >= 0) {
+            builder.append("/").append(total);
+            if (total > 0) {
+                builder.append(String.format(Locale.US, " (%.1f%%)", processed * 100d / total));
+            }
+        }
+        builder.append(String.format(Locale.US, " docs, %.1f docs/s", getRate()));
+
+        long eta = getEtaMillis();
+        if (eta >= 0) {
+            builder.append(String.format(Locale.US, ", ETA %02d:%02d:%02d", //
+                    TimeUnit.MILLISECONDS.toHours(eta), //
+                    TimeUnit.MILLISECONDS.toMinutes(eta) % 60, //
+                    TimeUnit.MILLISECONDS.toSeconds(eta) % 60));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+/**
+ * JMX view of a running migration's {@link MigrationProgress}.
+ */
+public interface MigrationProgressMXBean {
+
+    String getMigrationName();
+
+    long getProcessed();
+
+    /**
+     * @return the number of documents the migration expects to touch, or -1 when unknown
+     */
+    long getTotal();
+
+    /**
+     * @return documents per second, averaged over recent report intervals
+     */
+    double getRate();
+
+    /**
+     * @return estimated milliseconds until completion, or -1 when the total or rate is unknown
+     */
+    long getEtaMillis();
+}
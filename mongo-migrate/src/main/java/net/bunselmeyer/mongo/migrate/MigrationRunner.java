@@ -16,14 +16,91 @@
 
 package net.bunselmeyer.mongo.migrate;
 
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import net.bunselmeyer.mongo.annotations.Connection;
+import net.vz.mongodb.jackson.JacksonDBCollection;
+import org.bson.types.ObjectId;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs migrations against a single database and records each one in the MigrationVersionDetails collection.
+ * Shared by the maven plugin and the standalone runner.
+ * <p/>
+ * Old records can be moved to the MigrationVersionDetailsArchive collection with {@link #compactHistory(int)}. A
+ * single checkpoint document left behind holds the highest archived version, so pending detection only consults the
+ * archive for migrations at or below it.
+ */
 public class MigrationRunner {
 
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final int COMPACT_BATCH_SIZE = 1000;
+
+    private static final int STOP_TIMEOUT_SECONDS = 30;
+
     private final DB _db;
+    private final MigrationLog _log;
+    private final JacksonDBCollection<MigrationVersionDetails, ObjectId> _versionCollection;
+    private final DBCollection _archiveCollection;
+
+    private int _progressInterval = 30;
+    private ClassLoader _classLoader;
+    private boolean _indexed;
 
     MigrationRunner(DB db) {
+        this(db, new MigrationLog() {
+            public void info(String message) {
+            }
+
+            public void warn(String message) {
+            }
+
+            public void error(String message, Throwable error) {
+            }
+        });
+    }
+
+    public MigrationRunner(DB db, MigrationLog log) {
         _db = db;
+        _log = log;
+        _versionCollection = JacksonDBCollection.wrap(db.getCollection(MigrationVersionDetails.class.getSimpleName()),
+                MigrationVersionDetails.class, ObjectId.class, OBJECT_MAPPER);
+        _archiveCollection = db.getCollection(MigrationVersionDetails.class.getSimpleName() + "Archive");
+    }
+
+    /**
+     * Seconds between progress log lines and progress writes to the migration's version document. 0 disables both.
+     */
+    public MigrationRunner progressInterval(int seconds) {
+        _progressInterval = seconds;
+        return this;
+    }
+
+    /**
+     * Loader used to resolve migration names from the version collection on {@link #rollback(int)}.
+     * Defaults to the thread context class loader.
+     */
+    public MigrationRunner classLoader(ClassLoader classLoader) {
+        _classLoader = classLoader;
+        return this;
     }
 
     public void migrate() {
@@ -38,6 +115,72 @@ public class MigrationRunner {
         }
     }
 
+    /**
+     * Run every migration that has not been run yet, in the given order, stopping at the first failure.
+     *
+     * @return false if a migration failed
+     */
+    public boolean migrate(List<Class<? extends Migration>> migrations) {
+        Class<? extends Migration> lastMigration = null;
+        try {
+            ensureIndexes();
+            long checkpointVersion = checkpointVersion();
+            for (Class<? extends Migration> migration : migrations) {
+                lastMigration = migration;
+                DateTime version = version(migration);
+
+                if (isApplied(migration, version, checkpointVersion)) {
+                    _log.info("    " + migration.getName() + ", v" + version + " was already run");
+                    continue;
+                }
+
+                Migration m = migration.newInstance();
+
+                MigrationVersionDetails versionDetails = new MigrationVersionDetails();
+                versionDetails.setMigrationName(migration.getName());
+                versionDetails.setVersion(version);
+
+                ProgressReporter progressReporter = new ProgressReporter(m.getProgress(), buildVersionQuery(migration, version));
+                progressReporter.start();
+                try {
+                    m.up(_db);
+                    _db.getLastError().throwOnError();
+                } finally {
+                    progressReporter.stop();
+                }
+                _log.info("    " + migration.getName() + ", v" + version + " migration complete. " + m.getProgress());
+                versionDetails.setRun(DateTime.now(DateTimeZone.UTC));
+                versionDetails.setProcessed(m.getProgress().getProcessed());
+                versionDetails.setTotal(m.getProgress().getTotal());
+                versionDetails.setProgressUpdated(versionDetails.getRun());
+                // replaces the in-progress document written by the ProgressReporter, if any. Written before verify so
+                // a verify that hangs or crashes cannot leave an applied migration looking pending.
+                _versionCollection.update(buildVersionQuery(migration, version), versionDetails, true, false);
+                verify(m, buildVersionQuery(migration, version));
+            }
+            return true;
+        } catch (Exception e) {
+            String name = lastMigration != null ? lastMigration.getName() : "";
+            _log.error("    FAIL! " + name + " migration error", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the migrations {@link #migrate(List)} would run, in order
+     */
+    public List<Class<? extends Migration>> plan(List<Class<? extends Migration>> migrations) {
+        ensureIndexes();
+        long checkpointVersion = checkpointVersion();
+        List<Class<? extends Migration>> pending = new ArrayList<Class<? extends Migration>>();
+        for (Class<? extends Migration> migration : migrations) {
+            if (!isApplied(migration, version(migration), checkpointVersion)) {
+                pending.add(migration);
+            }
+        }
+        return pending;
+    }
+
     public void rollback(Class<? extends Migration> migration) {
         try {
             migration.newInstance().down(_db);
@@ -46,7 +189,278 @@ public class MigrationRunner {
         }
     }
 
-    public void rollback(int steps) {
+    /**
+     * Run {@link Migration#down} for the last {@code steps} applied migrations, most recent first, and remove their
+     * version records. Migrations archived by {@link #compactHistory(int)} cannot be rolled back.
+     *
+     * @return false if a migration failed
+     * @throws IllegalArgumentException if {@code steps} is less than 1
+     */
+    public boolean rollback(int steps) {
+        if (steps < 1) {
+            throw new IllegalArgumentException("steps must be at least 1: " + steps);
+        }
+        String name = "";
+        try {
+            List<MigrationVersionDetails> applied = lastApplied(steps);
+            if (applied.size() < steps) {
+                _log.warn("    Only " + applied.size() + " migrations can be rolled back");
+            }
+
+            for (MigrationVersionDetails versionDetails : applied) {
+                name = versionDetails.getMigrationName();
+                Class<? extends Migration> migration = Class.forName(name, true, getClassLoader()).asSubclass(Migration.class);
+                migration.newInstance().down(_db);
+                _db.getLastError().throwOnError();
+                // the record's _id is not mapped onto MigrationVersionDetails, so remove it by what identifies the run
+                _versionCollection.getDbCollection().remove(buildVersionQuery(migration, versionDetails.getVersion()) //
+                        .append("run", new BasicDBObject("$exists", true)));
+                _log.info("    " + name + ", v" + versionDetails.getVersion() + " rolled back");
+            }
+            return true;
+        } catch (Exception e) {
+            _log.error("    FAIL! " + name + " rollback error", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the {@code count} most recently run migrations that have not been archived, most recent first. Walks
+     * the run index, so the cost does not depend on the length of the history.
+     * @throws IllegalArgumentException if {@code count} is less than 1, the driver reads limit(0) as no limit
+     */
+    public List<MigrationVersionDetails> lastApplied(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be at least 1: " + count);
+        }
+        ensureIndexes();
+        return _versionCollection //
+                .find(new BasicDBObject("run", new BasicDBObject("$exists", true))) //
+                .sort(new BasicDBObject("run", -1).append("version", -1)) //
+                .limit(count) //
+                .toArray();
+    }
+
+    /**
+     * Move all but the {@code keep} most recently run version records to the archive collection and raise the
+     * checkpoint to cover them. Records are archived and the checkpoint raised before they are removed, so an
+     * interrupted compaction never makes an applied migration look pending.
+     *
+     * @return the number of archived records
+     * @throws IllegalArgumentException if {@code keep} is negative
+     */
+    public int compactHistory(int keep) {
+        if (keep < 0) {
+            throw new IllegalArgumentException("keep must not be negative: " + keep);
+        }
+        ensureIndexes();
+        DBCollection versionCollection = _versionCollection.getDbCollection();
+
+        DBCursor records = versionCollection //
+                .find(new BasicDBObject("run", new BasicDBObject("$exists", true))) //
+                .sort(new BasicDBObject("run", -1).append("version", -1)) //
+                .skip(keep);
+
+        int archived = 0;
+        List<Object> batch = new ArrayList<Object>();
+        long maxVersion = Long.MIN_VALUE;
+        long maxRun = Long.MIN_VALUE;
+        try {
+            for (DBObject record : records) {
+                _archiveCollection.save(record);
+                batch.add(record.get("_id"));
+                maxVersion = Math.max(maxVersion, ((Number) record.get("version")).longValue());
+                maxRun = Math.max(maxRun, ((Number) record.get("run")).longValue());
+                if (batch.size() == COMPACT_BATCH_SIZE) {
+                    archived += removeArchived(batch, maxVersion, maxRun);
+                }
+            }
+            archived += removeArchived(batch, maxVersion, maxRun);
+        } finally {
+            records.close();
+        }
+
+        _log.info("    Archived " + archived + " migration version records, kept " + keep);
+        return archived;
+    }
+
+    private int removeArchived(List<Object> ids, long maxVersion, long maxRun) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        DBCollection versionCollection = _versionCollection.getDbCollection();
+        versionCollection.update(new BasicDBObject("checkpoint", true), //
+                new BasicDBObject("$set", new BasicDBObject("checkpoint", true)) //
+                        .append("$max", new BasicDBObject("version", maxVersion).append("checkpointRun", maxRun)) //
+                        .append("$inc", new BasicDBObject("archived", ids.size())), //
+                true, false);
+        versionCollection.remove(new BasicDBObject("_id", new BasicDBObject("$in", ids)));
+
+        int removed = ids.size();
+        ids.clear();
+        return removed;
+    }
 
+    /**
+     * Create the indexes behind pending detection, {@link #lastApplied(int)} and the checkpoint lookup.
+     * Cheap to repeat, the server ignores indexes that already exist.
+     */
+    public void ensureIndexes() {
+        if (_indexed) {
+            return;
+        }
+        DBCollection versionCollection = _versionCollection.getDbCollection();
+        DBObject versionKeys = new BasicDBObject("migrationName", 1).append("version", 1);
+        try {
+            // one record per migration, so progress writes and the final upsert can never insert a second one
+            versionCollection.ensureIndex(versionKeys, new BasicDBObject("unique", true));
+        } catch (MongoException e) {
+            _log.warn("    " + versionCollection.getName() + " holds duplicate migrationName/version records, remove the ones "
+                    + "without run to enforce uniqueness: " + e.getMessage());
+            versionCollection.ensureIndex(versionKeys);
+        }
+        _archiveCollection.ensureIndex(versionKeys);
+        for (DBCollection collection : new DBCollection[]{versionCollection, _archiveCollection}) {
+            collection.ensureIndex(new BasicDBObject("run", -1).append("version", -1));
+        }
+        versionCollection.ensureIndex(new BasicDBObject("checkpoint", 1), new BasicDBObject("sparse", true));
+        _indexed = true;
+    }
+
+    /**
+     * @return the version declared by the migration's {@link Connection}
+     * @throws IllegalArgumentException if there is no @Connection or its version is not an ISO timestamp
+     */
+    public static DateTime version(Class<? extends Migration> migration) {
+        Connection connection = migration.getAnnotation(Connection.class);
+        if (connection == null) {
+            throw new IllegalArgumentException(migration.getName() + " does not have @Connection");
+        }
+        return DateTime.parse(connection.version());
+    }
+
+    public static void sortByVersion(List<Class<? extends Migration>> migrations) {
+        Collections.sort(migrations, new Comparator<Class<? extends Migration>>() {
+            public int compare(Class<? extends Migration> o1, Class<? extends Migration> o2) {
+                return version(o1).compareTo(version(o2));
+            }
+        });
+    }
+
+    /**
+     * @return the highest archived version, or Long.MIN_VALUE if nothing was ever archived. Read once per
+     * {@link #migrate(List)} or {@link #plan(List)}, compactions do not run in the middle of either.
+     */
+    private long checkpointVersion() {
+        DBObject checkpoint = _versionCollection.getDbCollection().findOne(new BasicDBObject("checkpoint", true));
+        return checkpoint != null ? ((Number) checkpoint.get("version")).longValue() : Long.MIN_VALUE;
+    }
+
+    private boolean isApplied(Class<? extends Migration> migration, DateTime version, long checkpointVersion) {
+        // a version document without "run" only carries the progress of an earlier, unfinished attempt
+        DBObject completedQuery = buildVersionQuery(migration, version).append("run", new BasicDBObject("$exists", true));
+        if (_versionCollection.getDbCollection().count(completedQuery) > 0) {
+            return true;
+        }
+        return checkpointVersion >= version.getMillis() && _archiveCollection.count(completedQuery) > 0;
+    }
+
+    private void verify(Migration migration, DBObject versionQuery) {
+        List<VerificationResult> results;
+        try {
+            results = migration.verify(_db);
+        } catch (RuntimeException e) {
+            // the data is already migrated, so record the failed check rather than failing the migration
+            _log.error("        verify failed", e);
+            results = Collections.singletonList(new VerificationResult("verify", false, false, 0, 0, e.getMessage()));
+        }
+        if (results == null || results.isEmpty()) {
+            return;
+        }
+
+        boolean verified = true;
+        BasicDBList verification = new BasicDBList();
+        for (VerificationResult result : results) {
+            if (result.isPassed()) {
+                _log.info("        verify " + result);
+            } else {
+                _log.error("        verify " + result, null);
+                verified = false;
+            }
+            verification.add(new BasicDBObject(OBJECT_MAPPER.convertValue(result, Map.class)));
+        }
+        _versionCollection.getDbCollection().update(versionQuery, //
+                new BasicDBObject("$set", new BasicDBObject("verified", verified).append("verification", verification)));
+    }
+
+    private BasicDBObject buildVersionQuery(Class<? extends Migration> migration, DateTime version) {
+        return new BasicDBObject("migrationName", migration.getName()).append("version", version.getMillis());
+    }
+
+    private ClassLoader getClassLoader() {
+        return _classLoader != null ? _classLoader : Thread.currentThread().getContextClassLoader();
+    }
+
+    /**
+     * Logs a running migration's progress every {@link #_progressInterval} seconds, mirrors it onto the migration's
+     * version document so other nodes can watch it, and publishes it over JMX.
+     */
+    private class ProgressReporter implements Runnable {
+        private final MigrationProgress progress;
+        private final DBObject versionQuery;
+        private ScheduledExecutorService scheduler;
+        private ObjectName mbeanName;
+
+        private ProgressReporter(MigrationProgress progress, DBObject versionQuery) {
+            this.progress = progress;
+            this.versionQuery = versionQuery;
+        }
+
+        public void start() {
+            progress.start();
+            try {
+                mbeanName = progress.registerMBean();
+            } catch (RuntimeException e) {
+                _log.warn("Failed to register progress MBean for " + progress.getMigrationName() + ": " + e);
+            }
+            if (_progressInterval > 0) {
+                scheduler = Executors.newSingleThreadScheduledExecutor();
+                scheduler.scheduleAtFixedRate(this, _progressInterval, _progressInterval, TimeUnit.SECONDS);
+            }
+        }
+
+        public void run() {
+            progress.sample();
+            _log.info("    " + progress.getMigrationName() + ": " + progress);
+            try {
+                DBCollection versionCollection = _versionCollection.getDbCollection();
+                versionCollection.update(versionQuery, new BasicDBObject("$set", new BasicDBObject("processed", progress.getProcessed()) //
+                        .append("total", progress.getTotal()) //
+                        .append("progressUpdated", DateTime.now(DateTimeZone.UTC).getMillis())), true, false);
+            } catch (RuntimeException e) {
+                _log.warn("Failed to persist progress for " + progress.getMigrationName() + ": " + e);
+            }
+        }
+
+        /**
+         * Waits for a tick that is already writing, so its upsert cannot race the final version record.
+         */
+        public void stop() {
+            if (scheduler != null) {
+                scheduler.shutdown();
+                try {
+                    if (!scheduler.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        _log.warn("Progress reporter for " + progress.getMigrationName() + " did not stop in time");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            try {
+                MigrationProgress.unregisterMBean(mbeanName);
+            } catch (RuntimeException e) {
+                _log.warn("Failed to unregister progress MBean for " + progress.getMigrationName() + ": " + e);
+            }
+        }
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import org.bson.types.ObjectId;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+import org.joda.time.DateTime;
+
+import java.util.List;
+
+@JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class MigrationVersionDetails {
+    private ObjectId _id;
+    private DateTime _version;
+    private DateTime _run;
+    private String _migrationName;
+    private Long _processed;
+    private Long _total;
+    private DateTime _progressUpdated;
+    private Boolean _verified;
+    private List<VerificationResult> _verification;
+    private Boolean _checkpoint;
+    private Long _archived;
+    private DateTime _checkpointRun;
+
+    public ObjectId getId() {
+        return _id;
+    }
+
+    public void setId(ObjectId id) {
+        _id = id;
+    }
+
+    public DateTime getVersion() {
+        return _version;
+    }
+
+    public void setVersion(DateTime version) {
+        _version = version;
+    }
+
+    public DateTime getRun() {
+        return _run;
+    }
+
+    public void setRun(DateTime run) {
+        _run = run;
+    }
+
+    public String getMigrationName() {
+        return _migrationName;
+    }
+
+    public void setMigrationName(String migrationName) {
+        _migrationName = migrationName;
+    }
+
+    public Long getProcessed() {
+        return _processed;
+    }
+
+    public void setProcessed(Long processed) {
+        _processed = processed;
+    }
+
+    public Long getTotal() {
+        return _total;
+    }
+
+    public void setTotal(Long total) {
+        _total = total;
+    }
+
+    public DateTime getProgressUpdated() {
+        return _progressUpdated;
+    }
+
+    public void setProgressUpdated(DateTime progressUpdated) {
+        _progressUpdated = progressUpdated;
+    }
+
+    /**
+     * @return whether every {@link Migration#verify} check passed, or null if the
+     * migration has no checks
+     */
+    public Boolean getVerified() {
+        return _verified;
+    }
+
+    public void setVerified(Boolean verified) {
+        _verified = verified;
+    }
+
+    public List<VerificationResult> getVerification() {
+        return _verification;
+    }
+
+    public void setVerification(List<VerificationResult> verification) {
+        _verification = verification;
+    }
+
+    /**
+     * @return true for the document that stands in for records moved to the archive by
+     * {@link MigrationRunner#compactHistory(int)}; its version is the highest archived version
+     */
+    public Boolean getCheckpoint() {
+        return _checkpoint;
+    }
+
+    public void setCheckpoint(Boolean checkpoint) {
+        _checkpoint = checkpoint;
+    }
+
+    public Long getArchived() {
+        return _archived;
+    }
+
+    public void setArchived(Long archived) {
+        _archived = archived;
+    }
+
+    public DateTime getCheckpointRun() {
+        return _checkpointRun;
+    }
+
+    public void setCheckpointRun(DateTime checkpointRun) {
+        _checkpointRun = checkpointRun;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+
+/**
+ * Cursor settings for the scan side of the {@link Migration} helpers.
+ * Writes always go to the primary; {@link #readPreference} only affects the scan.
+ * <p/>
+ * Usage:
+ * <pre>
+ * renameField(db, "User", "emailAddress", "email", new ScanOptions().batchSize(1000).readPreference(ReadPreference.secondaryPreferred()));
+ * </pre>
+ */
+public class ScanOptions {
+
+    private DBObject _fields;
+    private int _batchSize;
+    private DBObject _hint;
+    private boolean _snapshot;
+    private boolean _sortById;
+    private boolean _noCursorTimeout;
+    private ReadPreference _readPreference;
+
+    /**
+     * Projection for the scan. Helpers that only touch a few fields pick their own when this is not set.
+     */
+    public ScanOptions fields(DBObject fields) {
+        _fields = fields;
+        return this;
+    }
+
+    public ScanOptions include(String... fieldNames) {
+        BasicDBObject fields = new BasicDBObject();
+        for (String fieldName : fieldNames) {
+            fields.put(fieldName, 1);
+        }
+        return fields(fields);
+    }
+
+    public ScanOptions batchSize(int batchSize) {
+        _batchSize = batchSize;
+        return this;
+    }
+
+    public ScanOptions hint(DBObject indexKeys) {
+        _hint = indexKeys;
+        return this;
+    }
+
+    /**
+     * Use the $snapshot query modifier so documents moved by the migration's own writes are not returned twice.
+     * Only supported by MMAPv1 servers before 4.0; prefer {@link #sortById} elsewhere.
+     */
+    public ScanOptions snapshot(boolean snapshot) {
+        _snapshot = snapshot;
+        return this;
+    }
+
+    /**
+     * Walk the _id index in order, which has the same effect as {@link #snapshot} on any storage engine.
+     */
+    public ScanOptions sortById(boolean sortById) {
+        _sortById = sortById;
+        return this;
+    }
+
+    /**
+     * Keep the cursor alive on the server across long gaps between batches.
+     */
+    public ScanOptions noCursorTimeout(boolean noCursorTimeout) {
+        _noCursorTimeout = noCursorTimeout;
+        return this;
+    }
+
+    public ScanOptions readPreference(ReadPreference readPreference) {
+        _readPreference = readPreference;
+        return this;
+    }
+
+    public DBObject getFields() {
+        return _fields;
+    }
+
+    public int getBatchSize() {
+        return _batchSize;
+    }
+
+    public DBObject getHint() {
+        return _hint;
+    }
+
+    public boolean isSnapshot() {
+        return _snapshot;
+    }
+
+    public boolean isSortById() {
+        return _sortById;
+    }
+
+    public boolean isNoCursorTimeout() {
+        return _noCursorTimeout;
+    }
+
+    public ReadPreference getReadPreference() {
+        return _readPreference;
+    }
+
+    public DBCursor find(DBCollection collection, DBObject query) {
+        return find(collection, query, _fields);
+    }
+
+    /**
+     * Same as {@link #find(DBCollection, DBObject)} with a projection picked by the caller instead of {@link #getFields()}.
+     */
+    DBCursor find(DBCollection collection, DBObject query, DBObject fields) {
+        DBCursor cursor = applyCursorOptions(collection.find(query, fields));
+        if (_hint != null) {
+            cursor.hint(_hint);
+        }
+        if (_snapshot) {
+            cursor.snapshot();
+        } else if (_sortById) {
+            cursor.sort(new BasicDBObject("_id", 1));
+        }
+        return cursor;
+    }
+
+    /**
+     * Apply the settings that do not change which index the scan walks, for callers that pick the index themselves.
+     */
+    DBCursor applyCursorOptions(DBCursor cursor) {
+        if (_batchSize > 0) {
+            cursor.batchSize(_batchSize);
+        }
+        if (_noCursorTimeout) {
+            cursor.addOption(Bytes.QUERYOPTION_NOTIMEOUT);
+        }
+        if (_readPreference != null) {
+            cursor.setReadPreference(_readPreference);
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a {@link DocumentCallback} over a sharded collection one chunk range at a time.
+ * Chunks are read from config.chunks and grouped by shard, each shard gets its own pool of
+ * {@code concurrencyPerShard} workers, and every range query carries the shard key bounds so mongos
+ * can target it at a single shard instead of scatter-gathering.
+ * <p/>
+ * Hashed shard keys are the exception. Their chunk bounds are hash values, which no query predicate can express, so
+ * each range is still bounded exactly by $min/$max but mongos broadcasts it to every shard.
+ * <p/>
+ * Collections that are not sharded are scanned in a single pass.
+ */
+public class ShardedExecutor {
+
+    private static final long BALANCER_POLL_MILLIS = 1000;
+
+    private final DB _db;
+    private final DB _configDb;
+    private final DB _adminDb;
+
+    private int _concurrencyPerShard = 1;
+    private boolean _pauseBalancer = true;
+    private long _balancerTimeoutMillis = 10 * 60 * 1000;
+    private ScanOptions _scanOptions = new ScanOptions();
+
+    public ShardedExecutor(DB db) {
+        _db = db;
+        _configDb = db.getSisterDB("config");
+        _adminDb = db.getSisterDB("admin");
+    }
+
+    public ShardedExecutor concurrencyPerShard(int concurrencyPerShard) {
+        if (concurrencyPerShard < 1) {
+            throw new IllegalArgumentException("concurrencyPerShard must be at least 1");
+        }
+        _concurrencyPerShard = concurrencyPerShard;
+        return this;
+    }
+
+    /**
+     * Stop the balancer for the duration of {@link #execute} so chunks do not move underneath the range
+     * queries. On by default.
+     */
+    public ShardedExecutor pauseBalancer(boolean pauseBalancer) {
+        _pauseBalancer = pauseBalancer;
+        return this;
+    }
+
+    /**
+     * How long to wait for an in-flight balancer round to finish after the balancer was stopped.
+     */
+    public ShardedExecutor balancerTimeout(long millis) {
+        _balancerTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * Projection, batch size, cursor timeout and read preference for the range scans.
+     * The hint and ordering are ignored, every range walks the shard key index.
+     */
+    public ShardedExecutor scanOptions(ScanOptions scanOptions) {
+        _scanOptions = scanOptions;
+        return this;
+    }
+
+    public void execute(String collectionName, DBObject query, DocumentCallback callback) {
+        DBCollection collection = _db.getCollection(collectionName);
+        DBObject collectionConfig = _configDb.getCollection("collections").findOne(new BasicDBObject("_id", collection.getFullName()));
+
+        if (collectionConfig == null || Boolean.TRUE.equals(collectionConfig.get("dropped"))) {
+            DBCursor dbObjects = _scanOptions.find(collection, query);
+            try {
+                for (DBObject document : dbObjects) {
+                    callback.apply(collection, document);
+                }
+            } finally {
+                dbObjects.close();
+            }
+            return;
+        }
+
+        DBObject shardKey = (DBObject) collectionConfig.get("key");
+
+        // chunks are only read once the balancer round is over, so the ranges cannot move underneath us
+        boolean restartBalancer = _pauseBalancer && stopBalancer();
+        try {
+            executeByShard(collection, shardKey, query, findChunksByShard(collectionConfig), callback);
+        } finally {
+            if (restartBalancer) {
+                startBalancer();
+            }
+        }
+    }
+
+    protected Map<String, List<Chunk>> findChunksByShard(DBObject collectionConfig) {
+        DBCollection chunks = _configDb.getCollection("chunks");
+
+        // Chunks are keyed by namespace up to 4.4 and by collection uuid from 5.0 on.
+        DBObject query = new BasicDBObject("ns", collectionConfig.get("_id"));
+        if (chunks.count(query) == 0 && collectionConfig.get("uuid") != null) {
+            query = new BasicDBObject("uuid", collectionConfig.get("uuid"));
+        }
+
+        Map<String, List<Chunk>> chunksByShard = new LinkedHashMap<String, List<Chunk>>();
+        for (DBObject chunk : chunks.find(query).sort(new BasicDBObject("min", 1))) {
+            String shard = (String) chunk.get("shard");
+            List<Chunk> shardChunks = chunksByShard.get(shard);
+            if (shardChunks == null) {
+                shardChunks = new ArrayList<Chunk>();
+                chunksByShard.put(shard, shardChunks);
+            }
+            shardChunks.add(new Chunk(shard, (DBObject) chunk.get("min"), (DBObject) chunk.get("max")));
+        }
+        return chunksByShard;
+    }
+
+    private void executeByShard(final DBCollection collection, final DBObject shardKey, final DBObject query,
+                                Map<String, List<Chunk>> chunksByShard, final DocumentCallback callback) {
+
+        List<ExecutorService> executors = new ArrayList<ExecutorService>();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try {
+            for (List<Chunk> shardChunks : chunksByShard.values()) {
+                ExecutorService executor = Executors.newFixedThreadPool(Math.min(_concurrencyPerShard, shardChunks.size()));
+                executors.add(executor);
+                for (final Chunk chunk : shardChunks) {
+                    futures.add(executor.submit(new Callable<Void>() {
+                        public Void call() throws Exception {
+                            DBCursor dbObjects = openRange(collection, shardKey, query, chunk);
+                            try {
+                                for (DBObject document : dbObjects) {
+                                    callback.apply(collection, document);
+                                }
+                            } finally {
+                                dbObjects.close();
+                            }
+                            return null;
+                        }
+                    }));
+                }
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            for (ExecutorService executor : executors) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    protected DBCursor openRange(DBCollection collection, DBObject shardKey, DBObject query, Chunk chunk) {
+        return _scanOptions.applyCursorOptions(collection.find(buildRangeQuery(shardKey, query, chunk), _scanOptions.getFields())) //
+                .hint(shardKey) //
+                .addSpecial("$min", chunk.min) //
+                .addSpecial("$max", chunk.max);
+    }
+
+    protected static DBObject buildRangeQuery(DBObject shardKey, DBObject query, Chunk chunk) {
+        BasicDBObject rangeQuery = new BasicDBObject();
+        if (query != null) {
+            rangeQuery.putAll(query);
+        }
+
+        // $min/$max bound the scan exactly, the predicate on the leading key is what lets mongos target the shard.
+        String leadingKey = shardKey.keySet().iterator().next();
+        if (!"hashed".equals(shardKey.get(leadingKey)) && !rangeQuery.containsField(leadingKey)) {
+            rangeQuery.put(leadingKey, new BasicDBObject("$gte", chunk.min.get(leadingKey)).append("$lte", chunk.max.get(leadingKey)));
+        }
+        return rangeQuery;
+    }
+
+    /**
+     * @return true if the balancer was enabled and has been stopped by this call
+     */
+    protected boolean stopBalancer() {
+        if (!isBalancerEnabled()) {
+            return false;
+        }
+
+        CommandResult result = _adminDb.command(new BasicDBObject("balancerStop", 1));
+        if (!result.ok()) {
+            setBalancerStopped(true);
+        }
+
+        long deadline = System.currentTimeMillis() + _balancerTimeoutMillis;
+        while (isBalancerRunning()) {
+            if (System.currentTimeMillis() > deadline) {
+                startBalancer();
+                throw new IllegalStateException("Timed out waiting for the balancer round to finish");
+            }
+            try {
+                Thread.sleep(BALANCER_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                startBalancer();
+                throw new RuntimeException(e);
+            }
+        }
+        return true;
+    }
+
+    protected void startBalancer() {
+        CommandResult result = _adminDb.command(new BasicDBObject("balancerStart", 1));
+        if (!result.ok()) {
+            setBalancerStopped(false);
+        }
+    }
+
+    protected boolean isBalancerEnabled() {
+        CommandResult status = _adminDb.command(new BasicDBObject("balancerStatus", 1));
+        if (status.ok()) {
+            return !"off".equals(status.get("mode"));
+        }
+        DBObject settings = _configDb.getCollection("settings").findOne(new BasicDBObject("_id", "balancer"));
+        return settings == null || !Boolean.TRUE.equals(settings.get("stopped"));
+    }
+
+    protected boolean isBalancerRunning() {
+        CommandResult status = _adminDb.command(new BasicDBObject("balancerStatus", 1));
+        if (status.ok()) {
+            return status.getBoolean("inBalancerRound");
+        }
+        // Pre 3.4 servers hold the "balancer" distributed lock for the length of a round.
+        DBObject lock = _configDb.getCollection("locks").findOne(new BasicDBObject("_id", "balancer"));
+        return lock != null && lock.get("state") instanceof Number && ((Number) lock.get("state")).intValue() > 0;
+    }
+
+    private void setBalancerStopped(boolean stopped) {
+        _configDb.getCollection("settings").update( //
+                new BasicDBObject("_id", "balancer"), //
+                new BasicDBObject("$set", new BasicDBObject("stopped", stopped)), //
+                true, false);
+    }
+
+    protected static class Chunk {
+        public final String shard;
+        public final DBObject min;
+        public final DBObject max;
+
+        protected Chunk(String shard, DBObject min, DBObject max) {
+            this.shard = shard;
+            this.min = min;
+            this.max = max;
+        }
+    }
+}
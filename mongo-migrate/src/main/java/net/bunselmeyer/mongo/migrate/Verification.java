@@ -0,0 +1,300 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How a post-migration check covers a collection: a random $sample of documents, or a full scan split into _id
+ * ranges that are counted in parallel until a time budget runs out.
+ * <p/>
+ * Sampling, and splitting a full scan into more than one range, use $sample and need MongoDB 3.2 or later.
+ * <p/>
+ * Usage:
+ * <pre>
+ * public List&lt;VerificationResult&gt; verify(DB db) {
+ *     return Arrays.asList(verifyFieldAbsent(db, "User", "emailAddress", Verification.fullScan(4, 60000)));
+ * }
+ * </pre>
+ */
+public class Verification {
+
+    private static final int SAMPLES_PER_RANGE = 16;
+
+    /**
+     * Server error code for operations that exceeded their maxTimeMS.
+     */
+    private static final int EXCEEDED_TIME_LIMIT = 50;
+
+    private final int _sampleSize;
+    private final int _parallelism;
+    private final long _timeBudgetMillis;
+
+    private Verification(int sampleSize, int parallelism, long timeBudgetMillis) {
+        _sampleSize = sampleSize;
+        _parallelism = parallelism;
+        _timeBudgetMillis = timeBudgetMillis;
+    }
+
+    public static Verification sample(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("sample size must be at least 1");
+        }
+        return new Verification(size, 1, 0);
+    }
+
+    public static Verification fullScan(int parallelism, long timeBudgetMillis) {
+        if (parallelism < 1 || timeBudgetMillis < 1) {
+            throw new IllegalArgumentException("parallelism and timeBudgetMillis must be at least 1");
+        }
+        return new Verification(0, parallelism, timeBudgetMillis);
+    }
+
+    public boolean isSampled() {
+        return _sampleSize > 0;
+    }
+
+    /**
+     * Count the documents in {@code collection} matching {@code failureQuery}; the check passes when there are none.
+     */
+    public VerificationResult countMatching(DBCollection collection, DBObject failureQuery, String name) {
+        return isSampled() ? sampleMatching(collection, failureQuery, name) : scanMatching(collection, failureQuery, name);
+    }
+
+    /**
+     * Compare the number of documents matching {@code sourceQuery} in {@code source} with those matching
+     * {@code targetQuery} in {@code target}. Counts are exact in both modes, a full scan bounds each by the time budget.
+     */
+    public VerificationResult countParity(DBCollection source, DBObject sourceQuery, DBCollection target, DBObject targetQuery) {
+        String name = "countParity " + source.getName() + " -> " + target.getName();
+        long deadline = System.currentTimeMillis() + _timeBudgetMillis;
+        Long sourceCount = count(source, sourceQuery, deadline);
+        Long targetCount = sourceCount != null ? count(target, targetQuery, deadline) : null;
+        if (sourceCount == null || targetCount == null) {
+            return new VerificationResult(name, false, false, 0, 0, "Ran out of time budget");
+        }
+        return new VerificationResult(name, false, true, sourceCount, Math.abs(sourceCount - targetCount),
+                "source " + sourceCount + ", target " + targetCount);
+    }
+
+    private VerificationResult sampleMatching(DBCollection collection, DBObject failureQuery, String name) {
+        List<DBObject> results = aggregate(collection, 1, //
+                new BasicDBObject("$sample", new BasicDBObject("size", _sampleSize)), //
+                new BasicDBObject("$match", failureQuery), //
+                new BasicDBObject("$group", new BasicDBObject("_id", null).append("n", new BasicDBObject("$sum", 1))));
+
+        long failures = 0;
+        for (DBObject result : results) {
+            failures = ((Number) result.get("n")).longValue();
+        }
+        long checked = Math.min(_sampleSize, collection.count());
+        return new VerificationResult(name, true, true, checked, failures, null);
+    }
+
+    private VerificationResult scanMatching(final DBCollection collection, final DBObject failureQuery, String name) {
+        final long deadline = System.currentTimeMillis() + _timeBudgetMillis;
+
+        List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+        for (final DBObject range : splitById(collection)) {
+            final DBObject query = range.keySet().isEmpty() ? failureQuery : and(failureQuery, range);
+            tasks.add(new Callable<long[]>() {
+                public long[] call() throws Exception {
+                    Long failures = count(collection, query, deadline);
+                    Long checked = failures != null ? count(collection, range, deadline) : null;
+                    return checked != null ? new long[]{failures, checked} : null;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(_parallelism, tasks.size()));
+        long failures = 0;
+        long checked = 0;
+        int completed = 0;
+        try {
+            for (Future<long[]> future : executor.invokeAll(tasks, Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                try {
+                    long[] counts = future.get();
+                    if (counts != null) {
+                        failures += counts[0];
+                        checked += counts[1];
+                        completed++;
+                    }
+                } catch (CancellationException e) {
+                    // ran out of time budget
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // checked only covers the ranges that finished, so an incomplete scan does not claim the whole collection
+        boolean complete = completed == tasks.size();
+        return new VerificationResult(name, false, complete, checked, failures,
+                complete ? null : "Ran out of time budget after " + completed + " of " + tasks.size() + " ranges");
+    }
+
+    /**
+     * Split the collection into {@code parallelism} contiguous _id ranges using sampled _ids as boundaries.
+     * $lt and $gte only match _ids of the same BSON type as the bound, so a last range picks up _ids of any other
+     * type. When the sampled _ids already mix types the collection is scanned as a single range.
+     */
+    protected List<DBObject> splitById(DBCollection collection) {
+        List<DBObject> ranges = new ArrayList<DBObject>();
+        if (_parallelism == 1) {
+            ranges.add(new BasicDBObject());
+            return ranges;
+        }
+
+        int samples = _parallelism * SAMPLES_PER_RANGE;
+        List<DBObject> results = aggregate(collection, samples, //
+                new BasicDBObject("$sample", new BasicDBObject("size", samples)), //
+                new BasicDBObject("$project", new BasicDBObject("_id", 1)), //
+                new BasicDBObject("$sort", new BasicDBObject("_id", 1)));
+
+        List<Object> ids = new ArrayList<Object>();
+        Object bsonTypes = null;
+        for (DBObject result : results) {
+            Object id = result.get("_id");
+            Object idTypes = bsonTypes(id);
+            if (idTypes == null || (bsonTypes != null && !bsonTypes.equals(idTypes))) {
+                ranges.add(new BasicDBObject());
+                return ranges;
+            }
+            bsonTypes = idTypes;
+            ids.add(id);
+        }
+
+        Object lower = null;
+        for (int i = 1; i < _parallelism && !ids.isEmpty(); i++) {
+            Object upper = ids.get(i * ids.size() / _parallelism);
+            if (upper.equals(lower)) {
+                continue;
+            }
+            BasicDBObject bounds = new BasicDBObject("$lt", upper);
+            if (lower != null) {
+                bounds.append("$gte", lower);
+            }
+            ranges.add(new BasicDBObject("_id", bounds));
+            lower = upper;
+        }
+        if (lower == null) {
+            ranges.add(new BasicDBObject());
+            return ranges;
+        }
+        ranges.add(new BasicDBObject("_id", new BasicDBObject("$gte", lower)));
+        ranges.add(new BasicDBObject("_id", new BasicDBObject("$not", new BasicDBObject("$type", bsonTypes))));
+        return ranges;
+    }
+
+    /**
+     * @return the BSON type number(s) that compare with {@code id} in a range query, or null for types that are not
+     * split into ranges
+     */
+    protected static Object bsonTypes(Object id) {
+        if (id instanceof ObjectId) {
+            return 7;
+        }
+        if (id instanceof String) {
+            return 2;
+        }
+        if (id instanceof Date) {
+            return 9;
+        }
+        if (id instanceof Number) {
+            // double, int, long and decimal all compare with each other
+            return Arrays.asList(1, 16, 18, 19);
+        }
+        return null;
+    }
+
+    /**
+     * Run the pipeline as an aggregate command with a cursor. The pinned driver's aggregate() leaves out the cursor
+     * option that servers from 3.6 on require, and $sample itself needs 3.2, so sampling works on MongoDB 3.2 and later.
+     *
+     * @param batchSize at least the number of results, they are all read from the first batch
+     */
+    private static List<DBObject> aggregate(DBCollection collection, int batchSize, DBObject... pipeline) {
+        BasicDBList stages = new BasicDBList();
+        stages.addAll(Arrays.asList(pipeline));
+        CommandResult result = collection.getDB().command(new BasicDBObject("aggregate", collection.getName()) //
+                .append("pipeline", stages) //
+                .append("cursor", new BasicDBObject("batchSize", batchSize)));
+        if (!result.ok()) {
+            throw new IllegalStateException("Sampled verification needs MongoDB 3.2 or later, aggregate failed: " + result.get("errmsg"));
+        }
+
+        List<DBObject> results = new ArrayList<DBObject>();
+        for (Object document : (List<?>) ((DBObject) result.get("cursor")).get("firstBatch")) {
+            results.add((DBObject) document);
+        }
+        return results;
+    }
+
+    /**
+     * @return the count, or null if the deadline passed first
+     */
+    private Long count(DBCollection collection, DBObject query, long deadline) {
+        BasicDBObject command = new BasicDBObject("count", collection.getName()).append("query", query);
+        if (_timeBudgetMillis > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            command.append("maxTimeMS", remaining);
+        }
+
+        CommandResult result = collection.getDB().command(command);
+        if (!result.ok()) {
+            Object code = result.get("code");
+            if (code instanceof Number && ((Number) code).intValue() == EXCEEDED_TIME_LIMIT) {
+                return null;
+            }
+            result.throwOnError();
+        }
+        return ((Number) result.get("n")).longValue();
+    }
+
+    private static DBObject and(DBObject... queries) {
+        BasicDBList clauses = new BasicDBList();
+        for (DBObject query : queries) {
+            clauses.add(query);
+        }
+        return new BasicDBObject("$and", clauses);
+    }
+}
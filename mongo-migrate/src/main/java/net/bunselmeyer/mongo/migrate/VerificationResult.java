@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+/**
+ * Outcome of one post-migration consistency check, stored with the migration's version record.
+ */
+public class VerificationResult {
+    private String _name;
+    private boolean _passed;
+    private boolean _sampled;
+    private boolean _complete;
+    private long _checked;
+    private long _failures;
+    private String _message;
+
+    public VerificationResult() {
+    }
+
+    public VerificationResult(String name, boolean sampled, boolean complete, long checked, long failures, String message) {
+        _name = name;
+        _sampled = sampled;
+        _complete = complete;
+        _checked = checked;
+        _failures = failures;
+        _passed = complete && failures == 0;
+        _message = message;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public void setName(String name) {
+        _name = name;
+    }
+
+    /**
+     * @return true if the check ran to completion and found no failures
+     */
+    public boolean isPassed() {
+        return _passed;
+    }
+
+    public void setPassed(boolean passed) {
+        _passed = passed;
+    }
+
+    /**
+     * @return true if only a random sample of documents was checked
+     */
+    public boolean isSampled() {
+        return _sampled;
+    }
+
+    public void setSampled(boolean sampled) {
+        _sampled = sampled;
+    }
+
+    /**
+     * @return false if the check ran out of its time budget before covering every document
+     */
+    public boolean isComplete() {
+        return _complete;
+    }
+
+    public void setComplete(boolean complete) {
+        _complete = complete;
+    }
+
+    public long getChecked() {
+        return _checked;
+    }
+
+    public void setChecked(long checked) {
+        _checked = checked;
+    }
+
+    public long getFailures() {
+        return _failures;
+    }
+
+    public void setFailures(long failures) {
+        _failures = failures;
+    }
+
+    public String getMessage() {
+        return _message;
+    }
+
+    public void setMessage(String message) {
+        _message = message;
+    }
+
+    @Override
+    public String toString() {
+        return _name + ": " + (_passed ? "passed" : "FAILED") + ", " + _failures + " failures in " + _checked
+                + (_sampled ? " sampled" : "") + " documents" + (_complete ? "" : " (incomplete)")
+                + (_message != null ? ". " + _message : "");
+    }
+}
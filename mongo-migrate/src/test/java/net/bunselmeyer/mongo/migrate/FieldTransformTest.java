@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class FieldTransformTest {
+
+    @Test
+    public void testFieldPath() throws Exception {
+        DBObject document = new BasicDBObject("address", new BasicDBObject("zip", "97201"));
+
+        FieldPath zip = FieldPath.compile("address.zip");
+        assertTrue(zip.exists(document));
+        assertEquals("97201", zip.get(document));
+        assertNull(FieldPath.compile("address.zip.plus4").get(document));
+
+        FieldPath city = FieldPath.compile("geo.city");
+        city.set(document, "Portland");
+        assertEquals(new BasicDBObject("city", "Portland"), document.get("geo"));
+
+        assertEquals("97201", zip.unset(document));
+        assertFalse(zip.exists(document));
+        assertEquals("address.postalCode", zip.withLeaf("postalCode").getPath());
+    }
+
+    @Test
+    public void testFieldPathUnderArray() throws Exception {
+        BasicDBList addresses = new BasicDBList();
+        addresses.add(new BasicDBObject("zip", "97201"));
+        DBObject document = new BasicDBObject("addresses", addresses);
+
+        FieldPath zip = FieldPath.compile("addresses.zip");
+        assertFalse(zip.exists(document));
+        assertNull(zip.get(document));
+        assertNull(zip.unset(document));
+        assertEquals("97201", FieldPath.compile("addresses.0.zip").get(document));
+        assertEquals(Arrays.asList("addresses"), zip.getNamedParents());
+        assertEquals(Arrays.asList("addresses.0.geo"), FieldPath.compile("addresses.0.geo.lat").getNamedParents());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetFieldPathUnderArray() throws Exception {
+        FieldPath.compile("tags.name").set(new BasicDBObject("tags", new BasicDBList()), "a");
+    }
+
+    @Test
+    public void testUnsetArrayElement() throws Exception {
+        // document by document, the array element move keeps it from being pushed down
+        FieldTransform local = new FieldTransform().unset("tags.0").set("tags.1", "x").move("tags.2", "last");
+        assertFalse(local.canPushDown());
+
+        BasicDBList tags = new BasicDBList();
+        tags.addAll(Arrays.asList("a", "b", "c"));
+        DBObject document = new BasicDBObject("tags", tags);
+        assertTrue(local.apply(document));
+        assertEquals(Arrays.asList(null, "x", null), document.get("tags"));
+        assertEquals("c", document.get("last"));
+
+        // pushed down, $unset leaves a null in place on the server as well
+        FieldTransform pushed = new FieldTransform().unset("tags.0");
+        assertTrue(pushed.canPushDown());
+        assertEquals(new BasicDBObject("$unset", new BasicDBObject("tags.0", "")), pushed.toUpdate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFieldPath() throws Exception {
+        FieldPath.compile("address..zip");
+    }
+
+    @Test
+    public void testApply() throws Exception {
+        FieldTransform transform = new FieldTransform() //
+                .rename("address.zip", "postalCode") //
+                .move("emailAddress", "contact.email") //
+                .unset("legacyId") //
+                .set("schema", 2);
+
+        DBObject document = new BasicDBObject("emailAddress", "a@b.com") //
+                .append("address", new BasicDBObject("zip", "97201")) //
+                .append("legacyId", 7);
+
+        assertTrue(transform.apply(document));
+        assertEquals(new BasicDBObject("address", new BasicDBObject("postalCode", "97201")) //
+                .append("contact", new BasicDBObject("email", "a@b.com")) //
+                .append("schema", 2), document);
+
+        DBObject empty = new BasicDBObject();
+        assertTrue(transform.apply(empty));
+        assertEquals(new BasicDBObject("schema", 2), empty);
+
+        assertFalse(new FieldTransform().unset("legacyId").apply(new BasicDBObject()));
+    }
+
+    @Test
+    public void testToUpdate() throws Exception {
+        FieldTransform transform = new FieldTransform() //
+                .rename("address.zip", "postalCode") //
+                .unset("legacyId") //
+                .set("schema", 2);
+
+        assertTrue(transform.canPushDown());
+        assertEquals(new BasicDBObject("$set", new BasicDBObject("schema", 2)) //
+                .append("$rename", new BasicDBObject("address.zip", "address.postalCode")) //
+                .append("$unset", new BasicDBObject("legacyId", "")), transform.toUpdate());
+    }
+
+    @Test
+    public void testCannotPushDownOverlappingPaths() throws Exception {
+        FieldTransform transform = new FieldTransform() //
+                .move("emailAddress", "contact.email") //
+                .unset("contact");
+
+        assertFalse(transform.canPushDown());
+        assertFalse(new FieldTransform().canPushDown());
+    }
+
+    @Test
+    public void testCannotPushDownArrayElementMoves() throws Exception {
+        assertFalse(new FieldTransform().rename("tags.0", "first").canPushDown());
+        assertFalse(new FieldTransform().move("emailAddress", "contacts.1.email").canPushDown());
+        assertTrue(new FieldTransform().set("tags.0", "a").unset("tags.1").canPushDown());
+
+        DBObject document = new BasicDBObject("addresses", new BasicDBList());
+        ((BasicDBList) document.get("addresses")).add(new BasicDBObject("zip", "11111"));
+        assertTrue(new FieldTransform().rename("addresses.0.zip", "postalCode").apply(document));
+        assertEquals("11111", ((DBObject) ((BasicDBList) document.get("addresses")).get(0)).get("postalCode"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMoveIntoItself() throws Exception {
+        new FieldTransform().move("address", "address.old");
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class MigrationProgressTest {
+
+    @Test
+    public void testRateBeforeFirstSample() throws Exception {
+        TestProgress progress = new TestProgress();
+        progress.start();
+        progress.add(500);
+        progress.time = 10000;
+
+        assertEquals(50.0, progress.getRate(), 0.001);
+        assertEquals(-1, progress.getEtaMillis());
+    }
+
+    @Test
+    public void testMovingRateAndEta() throws Exception {
+        TestProgress progress = new TestProgress();
+        progress.start();
+        progress.setTotal(5000);
+
+        progress.add(1000);
+        progress.time = 10000;
+        progress.sample();
+        assertEquals(100.0, progress.getRate(), 0.001);
+        assertEquals(40000, progress.getEtaMillis());
+        assertEquals("1000/5000 (20.0%) docs, 100.0 docs/s, ETA 00:00:40", progress.toString());
+
+        // slows down to 10 docs/s, the average since start would still claim 55 docs/s
+        progress.add(100);
+        progress.time = 20000;
+        progress.sample();
+        assertEquals(73.0, progress.getRate(), 0.001);
+        assertEquals(53424, progress.getEtaMillis());
+        assertEquals("1100/5000 (22.0%) docs, 73.0 docs/s, ETA 00:00:53", progress.toString());
+    }
+
+    @Test
+    public void testUnknownTotal() throws Exception {
+        TestProgress progress = new TestProgress();
+        progress.start();
+        progress.add(10);
+        progress.time = 1000;
+        progress.sample();
+
+        assertEquals(-1, progress.getTotal());
+        assertEquals(-1, progress.getEtaMillis());
+        assertEquals("10 docs, 10.0 docs/s", progress.toString());
+    }
+
+    @Test
+    public void testAddTotal() throws Exception {
+        TestProgress progress = new TestProgress();
+        progress.start();
+        progress.addTotal(3);
+        progress.addTotal(4);
+
+        assertEquals(7, progress.getTotal());
+    }
+
+    private static class TestProgress extends MigrationProgress {
+        private long time;
+
+        private TestProgress() {
+            super("TestMigration");
+        }
+
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+}
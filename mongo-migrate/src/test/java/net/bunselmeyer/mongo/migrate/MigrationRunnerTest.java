@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import com.mongodb.Mongo;
+import net.bunselmeyer.mongo.annotations.Connection;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class MigrationRunnerTest {
+
+    private static Mongo _mongo;
+    private static DB _db;
+
+    @BeforeClass
+    public static void setUpClass() throws UnknownHostException {
+        _mongo = new Mongo("localhost", 17017);
+        _db = _mongo.getDB("unittest_db");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        _db.dropDatabase();
+        _mongo.close();
+    }
+
+    @Before
+    public void setUp() {
+        _db.getCollection("MigrationVersionDetails").drop();
+        _db.getCollection("MigrationVersionDetailsArchive").drop();
+        _db.getCollection("runs").drop();
+    }
+
+    @Test
+    public void testArchivedMigrationIsStillApplied() throws Exception {
+        MigrationRunner runner = new MigrationRunner(_db);
+        assertTrue(runner.migrate(migrations(FirstMigration.class, SecondMigration.class, ThirdMigration.class)));
+
+        assertEquals(2, runner.compactHistory(1));
+        assertEquals(2, _db.getCollection("MigrationVersionDetailsArchive").count());
+
+        assertEquals(0, runner.plan(migrations(FirstMigration.class, SecondMigration.class, ThirdMigration.class)).size());
+        assertTrue(runner.migrate(migrations(FirstMigration.class, SecondMigration.class, ThirdMigration.class)));
+        assertEquals(3, _db.getCollection("runs").count());
+    }
+
+    @Test
+    public void testNeverRunMigrationBelowCheckpointIsPending() throws Exception {
+        MigrationRunner runner = new MigrationRunner(_db);
+        assertTrue(runner.migrate(migrations(FirstMigration.class, ThirdMigration.class)));
+        assertEquals(2, runner.compactHistory(0));
+
+        List<Class<? extends Migration>> pending = runner.plan(migrations(FirstMigration.class, SecondMigration.class, ThirdMigration.class));
+        assertEquals(migrations(SecondMigration.class), pending);
+
+        assertTrue(runner.migrate(migrations(FirstMigration.class, SecondMigration.class, ThirdMigration.class)));
+        assertEquals(3, _db.getCollection("runs").count());
+    }
+
+    @Test
+    public void testLastAppliedIgnoresCheckpoint() throws Exception {
+        MigrationRunner runner = new MigrationRunner(_db);
+        assertTrue(runner.migrate(migrations(FirstMigration.class, SecondMigration.class)));
+        runner.compactHistory(1);
+
+        List<MigrationVersionDetails> applied = runner.lastApplied(10);
+        assertEquals(1, applied.size());
+        assertEquals(SecondMigration.class.getName(), applied.get(0).getMigrationName());
+        assertEquals(1, _db.getCollection("MigrationVersionDetails").count(new BasicDBObject("checkpoint", true)));
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        MigrationRunner runner = new MigrationRunner(_db).classLoader(getClass().getClassLoader());
+        assertTrue(runner.migrate(migrations(FirstMigration.class, SecondMigration.class, ThirdMigration.class)));
+
+        assertTrue(runner.rollback(2));
+
+        assertEquals(1, _db.getCollection("runs").count());
+        assertEquals(1, _db.getCollection("MigrationVersionDetails").count());
+        assertEquals(migrations(SecondMigration.class, ThirdMigration.class),
+                runner.plan(migrations(FirstMigration.class, SecondMigration.class, ThirdMigration.class)));
+
+        assertTrue(runner.migrate(migrations(FirstMigration.class, SecondMigration.class, ThirdMigration.class)));
+        assertEquals(3, _db.getCollection("runs").count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRollbackRejectsZeroSteps() throws Exception {
+        new MigrationRunner(_db).rollback(0);
+    }
+
+    @Test
+    public void testVersionIndexIsUnique() throws Exception {
+        new MigrationRunner(_db).ensureIndexes();
+
+        boolean unique = false;
+        for (DBObject index : _db.getCollection("MigrationVersionDetails").getIndexInfo()) {
+            if (new BasicDBObject("migrationName", 1).append("version", 1).equals(index.get("key"))) {
+                unique = Boolean.TRUE.equals(index.get("unique"));
+            }
+        }
+        assertTrue(unique);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLastAppliedRejectsZeroCount() throws Exception {
+        new MigrationRunner(_db).lastApplied(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompactHistoryRejectsNegativeKeep() throws Exception {
+        new MigrationRunner(_db).compactHistory(-1);
+    }
+
+    private static List<Class<? extends Migration>> migrations(Class<? extends Migration>... migrations) {
+        return Arrays.asList(migrations);
+    }
+
+    private abstract static class RecordingMigration extends Migration {
+
+        public void up(DB db) {
+            db.getCollection("runs").insert(new BasicDBObject("migration", getClass().getName()));
+        }
+
+        public void down(DB db) {
+            db.getCollection("runs").remove(new BasicDBObject("migration", getClass().getName()));
+        }
+    }
+
+    @Connection(db = "unittest_db", version = "2012-09-20T01:00:00Z")
+    public static class FirstMigration extends RecordingMigration {
+    }
+
+    @Connection(db = "unittest_db", version = "2012-09-20T02:00:00Z")
+    public static class SecondMigration extends RecordingMigration {
+    }
+
+    @Connection(db = "unittest_db", version = "2012-09-20T03:00:00Z")
+    public static class ThirdMigration extends RecordingMigration {
+    }
+}
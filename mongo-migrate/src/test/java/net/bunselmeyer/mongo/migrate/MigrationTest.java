@@ -17,15 +17,21 @@
 package net.bunselmeyer.mongo.migrate;
 
 import java.net.UnknownHostException;
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import com.mongodb.Mongo;
+import com.mongodb.ReadPreference;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
 
 public class MigrationTest {
 
@@ -61,6 +67,56 @@ public class MigrationTest {
         assertEquals(3, fooCollection.find(new BasicDBObject("bb", new BasicDBObject("$exists", true))).length());
     }
 
+    @Test
+    public void testRenameNestedField() throws Exception {
+
+        DBCollection barCollection = _db.getCollection("bar");
+        barCollection.insert(new BasicDBObject("name", "a").append("address", new BasicDBObject("zip", "11111").append("city", "x")));
+        barCollection.insert(new BasicDBObject("name", "b").append("address", new BasicDBObject("zip", "22222")));
+        barCollection.insert(new BasicDBObject("name", "c"));
+
+        ScanOptions options = new ScanOptions().batchSize(1);
+        TestMigration migration = new TestMigration();
+        migration.renameField(_db, "bar", "address.zip", "postalCode", options);
+
+        assertNull(options.getFields());
+        assertEquals(0, barCollection.find(new BasicDBObject("address.zip", new BasicDBObject("$exists", true))).length());
+        assertEquals(2, barCollection.find(new BasicDBObject("postalCode", new BasicDBObject("$exists", true))).length());
+
+        DBObject a = barCollection.findOne(new BasicDBObject("name", "a"));
+        assertEquals("11111", a.get("postalCode"));
+        assertEquals("x", ((DBObject) a.get("address")).get("city"));
+        assertFalse(barCollection.findOne(new BasicDBObject("name", "c")).containsField("postalCode"));
+        assertEquals(2, migration.getProgress().getProcessed());
+    }
+
+    @Test
+    public void testRenameFieldUnderArray() throws Exception {
+
+        DBCollection bazCollection = _db.getCollection("baz");
+        BasicDBList addresses = new BasicDBList();
+        addresses.add(new BasicDBObject("zip", "11111"));
+        bazCollection.insert(new BasicDBObject("name", "a").append("addresses", addresses));
+
+        try {
+            new TestMigration().renameField(_db, "baz", "addresses.zip", "postalCode");
+            fail("renamed a field under an array");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(1, bazCollection.find(new BasicDBObject("addresses.zip", "11111")).length());
+        assertEquals(0, bazCollection.find(new BasicDBObject("postalCode", new BasicDBObject("$exists", true))).length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransformRejectsSecondaryReads() throws Exception {
+        _db.getCollection("qux").insert(new BasicDBObject("a", 1).append("b", 2));
+
+        FieldTransform transform = new FieldTransform().move("a", "c").unset("c");
+        new TestMigration().transform(_db, "qux", new BasicDBObject(), transform,
+                new ScanOptions().readPreference(ReadPreference.secondaryPreferred()));
+    }
+
     private static class TestMigration extends Migration {
 
         public void up(DB db) {
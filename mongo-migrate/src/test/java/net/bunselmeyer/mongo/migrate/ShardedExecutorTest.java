@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.Mongo;
+import org.bson.types.MaxKey;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class ShardedExecutorTest {
+
+    private static Mongo _mongo;
+    private static DB _db;
+
+    @BeforeClass
+    public static void setUpClass() throws UnknownHostException {
+        _mongo = new Mongo("localhost", 17017);
+        _db = _mongo.getDB("unittest_db");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        _db.dropDatabase();
+        _mongo.close();
+    }
+
+    @Test
+    public void testBuildRangeQuery() throws Exception {
+        ShardedExecutor.Chunk chunk = new ShardedExecutor.Chunk("shard0", new BasicDBObject("userId", 10), new BasicDBObject("userId", 20));
+
+        DBObject query = ShardedExecutor.buildRangeQuery(new BasicDBObject("userId", 1), new BasicDBObject("active", true), chunk);
+
+        assertEquals(new BasicDBObject("active", true).append("userId", new BasicDBObject("$gte", 10).append("$lte", 20)), query);
+    }
+
+    @Test
+    public void testBuildRangeQueryCompoundKey() throws Exception {
+        ShardedExecutor.Chunk chunk = new ShardedExecutor.Chunk("shard0", //
+                new BasicDBObject("userId", 0).append("ts", 0), //
+                new BasicDBObject("userId", 10).append("ts", 5));
+
+        DBObject query = ShardedExecutor.buildRangeQuery(new BasicDBObject("userId", 1).append("ts", 1), null, chunk);
+
+        assertEquals(new BasicDBObject("userId", new BasicDBObject("$gte", 0).append("$lte", 10)), query);
+    }
+
+    @Test
+    public void testBuildRangeQueryHashedKey() throws Exception {
+        ShardedExecutor.Chunk chunk = new ShardedExecutor.Chunk("shard0", new BasicDBObject("userId", -100L), new BasicDBObject("userId", new MaxKey()));
+
+        DBObject query = ShardedExecutor.buildRangeQuery(new BasicDBObject("userId", "hashed"), new BasicDBObject("active", true), chunk);
+
+        // hashed ranges are bounded by $min/$max alone, the predicate would compare unhashed values
+        assertEquals(new BasicDBObject("active", true), query);
+    }
+
+    @Test
+    public void testBuildRangeQueryKeepsCallerShardKeyPredicate() throws Exception {
+        ShardedExecutor.Chunk chunk = new ShardedExecutor.Chunk("shard0", new BasicDBObject("userId", 10), new BasicDBObject("userId", 20));
+
+        DBObject query = ShardedExecutor.buildRangeQuery(new BasicDBObject("userId", 1), new BasicDBObject("userId", 15), chunk);
+
+        assertEquals(new BasicDBObject("userId", 15), query);
+    }
+
+    @Test
+    public void testExecuteUnshardedCollection() throws Exception {
+        DBCollection collection = _db.getCollection("unsharded");
+        collection.insert(new BasicDBObject("aa", "11").append("active", true));
+        collection.insert(new BasicDBObject("aa", "22").append("active", true));
+        collection.insert(new BasicDBObject("aa", "33").append("active", false));
+
+        final List<Object> seen = new ArrayList<Object>();
+        new ShardedExecutor(_db).concurrencyPerShard(4).execute("unsharded", new BasicDBObject("active", true), new DocumentCallback() {
+            public void apply(DBCollection collection, DBObject document) {
+                seen.add(document.get("aa"));
+            }
+        });
+
+        assertEquals(2, seen.size());
+        assertEquals(true, seen.contains("11"));
+        assertEquals(true, seen.contains("22"));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012 William L. Bunselmeyer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.bunselmeyer.mongo.migrate;
+
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.Mongo;
+import org.bson.types.ObjectId;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class VerificationTest {
+
+    private static Mongo _mongo;
+    private static DB _db;
+
+    @BeforeClass
+    public static void setUpClass() throws UnknownHostException {
+        _mongo = new Mongo("localhost", 17017);
+        _db = _mongo.getDB("unittest_db");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        _db.dropDatabase();
+        _mongo.close();
+    }
+
+    @Test
+    public void testBsonTypes() throws Exception {
+        assertEquals(7, Verification.bsonTypes(new ObjectId()));
+        assertEquals(2, Verification.bsonTypes("a"));
+        assertEquals(Verification.bsonTypes(1), Verification.bsonTypes(1L));
+        assertNull(Verification.bsonTypes(new BasicDBObject("a", 1)));
+    }
+
+    @Test
+    public void testFullScanCoversMixedIdTypes() throws Exception {
+        DBCollection collection = _db.getCollection("mixedIds");
+        for (int i = 0; i < 200; i++) {
+            collection.insert(new BasicDBObject("_id", new ObjectId()).append("bad", false));
+        }
+        collection.insert(new BasicDBObject("_id", "a").append("bad", true));
+        collection.insert(new BasicDBObject("_id", 1).append("bad", true));
+
+        VerificationResult result = Verification.fullScan(4, 60000).countMatching(collection, new BasicDBObject("bad", true), "bad");
+
+        assertTrue(result.isComplete());
+        assertFalse(result.isPassed());
+        assertEquals(202, result.getChecked());
+        assertEquals(2, result.getFailures());
+    }
+
+    @Test
+    public void testSplitByIdMixedSample() throws Exception {
+        DBCollection collection = _db.getCollection("mixedSample");
+        for (Object id : Arrays.<Object>asList("a", "b", 1, 2, new ObjectId())) {
+            collection.insert(new BasicDBObject("_id", id));
+        }
+
+        assertEquals(Arrays.asList(new BasicDBObject()), Verification.fullScan(4, 60000).splitById(collection));
+    }
+}